@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.http.entity.ByteArrayEntity;
+
+import android.util.Log;
+
+/**
+ * Posts measurements to the hub in a compact length-prefixed binary batch format.  All integers
+ * are big-endian:
+ *
+ * <pre>
+ * batch  := magic(u8 'B', u8 'P') version(u8) count(u16) record*
+ * record := length(u8) systolic(u16) diastolic(u16) meanArterial(u16) pulse(u16)
+ *           unit(u16 MDC code) time(u64 epoch ms) deviceLength(u8) device(UTF-8)
+ * </pre>
+ *
+ * Values are sent in tenths of their unit; 0xFFFF marks a value the agent did not report.
+ *
+ * The record length allows readers to skip fields appended by later format versions.
+ */
+public class BinaryBatchSink implements MeasurementSink {
+    private static final String TAG = "bp";
+
+    public static final String CONTENT_TYPE = "application/octet-stream";
+    static final int VERSION = 4;
+    static final int NO_VALUE = 0xFFFF;
+    // Fixed part of a record, excluding the length byte and the device string.
+    static final int RECORD_LENGTH = 19;
+
+    private final String mUrl;
+
+    public BinaryBatchSink(String url) {
+        mUrl = url;
+    }
+
+    public void send(List<Measurement> batch) throws IOException {
+        if (batch.isEmpty()) return;
+        ByteArrayOutputStream buffer =
+                new ByteArrayOutputStream(5 + batch.size() * (RECORD_LENGTH + 18));
+        encode(batch, buffer);
+
+        ByteArrayEntity entity = new ByteArrayEntity(buffer.toByteArray());
+        entity.setContentType(CONTENT_TYPE);
+        Log.d(TAG, HubClient.getInstance().post(mUrl, entity));
+    }
+
+    // Writes the batch header followed by one record per measurement.
+    static void encode(List<Measurement> batch, OutputStream os) throws IOException {
+        if (batch.size() > 0xFFFF) {
+            throw new IOException("Batch too large: " + batch.size());
+        }
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeByte('B');
+        out.writeByte('P');
+        out.writeByte(VERSION);
+        out.writeShort(batch.size());
+        for (Measurement m : batch) {
+            byte[] device = m.device.getBytes("UTF-8");
+            if (RECORD_LENGTH + device.length > 0xFF) {
+                throw new IOException("Device name too long: " + m.device);
+            }
+            out.writeByte(RECORD_LENGTH + device.length);
+            out.writeShort(tenths(m.systolic));
+            out.writeShort(tenths(m.diastolic));
+            out.writeShort(tenths(m.meanArterial));
+            out.writeShort(tenths(m.pulse));
+            out.writeShort(m.unit);
+            out.writeLong(m.time);
+            out.writeByte(device.length);
+            out.write(device);
+        }
+        out.flush();
+    }
+
+    private static int tenths(double value) {
+        long v = Math.round(value * 10);
+        return Double.isNaN(value) || v < 0 || v >= NO_VALUE ? NO_VALUE : (int) v;
+    }
+}
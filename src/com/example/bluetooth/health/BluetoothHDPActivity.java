@@ -16,24 +16,7 @@
 
 package com.example.bluetooth.health;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.List;
-
-import org.apache.http.Header;
-import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.message.BasicHeader;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.protocol.HTTP;
-import org.json.JSONException;
-import org.json.JSONObject;
 
 import android.app.Activity;
 import android.app.AlertDialog;
@@ -41,15 +24,12 @@ import android.app.Dialog;
 import android.app.DialogFragment;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.res.Resources;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
@@ -71,13 +51,6 @@ import android.widget.Toast;
 public class BluetoothHDPActivity extends Activity {
     private static final String TAG = "bp";
 
-    // Use the appropriate IEEE 11073 data types based on the devices used.
-    // Below are some examples.  Refer to relevant Bluetooth HDP specifications for detail.
-    //     0x1007 - blood pressure meter
-    //     0x1008 - body thermometer
-    //     0x100F - body weight scale
-    private static final int HEALTH_PROFILE_SOURCE_DATA_TYPE = 0x1007;
-
     private static final int REQUEST_ENABLE_BT = 1;
 
     private TextView mConnectIndicator;
@@ -92,7 +65,6 @@ public class BluetoothHDPActivity extends Activity {
     private Resources mRes;
     private Messenger mHealthService;
     private boolean mHealthServiceBound;
-
     // Handles events sent by {@link HealthHDPService}.
     private Handler mIncomingHandler = new Handler() {
         @Override
@@ -137,11 +109,32 @@ public class BluetoothHDPActivity extends Activity {
                             msg.arg1));
                     mConnectIndicator.setText(R.string.disconnected);
                     break;
+                // Upload state changed.
+                case BluetoothHDPService.STATUS_SYNC:
+                    SyncScheduler sync = BluetoothHDPService.getSync();
+                    mStatusMessage.setText(String.format(mRes.getString(R.string.status_sync),
+                            msg.arg1, sync != null ? sync.getPending() : 0));
+                    break;
+                // Readings could not be stored.
+                case BluetoothHDPService.STATUS_STORE_FAILED:
+                    mStatusMessage.setText(String.format(
+                            mRes.getString(R.string.status_store_failed), msg.arg1));
+                    break;
                 case BluetoothHDPService.SHOW_RESULT:
-                	//show result in UI: (textView)mResultMessage
+                	//show result in UI: (textView)mResultMessage.  Storage and upload are
+                	//done by the service.
+                	Bundle data = msg.getData();
+                	Measurement m = new Measurement(
+                	        data.getString(BluetoothHDPService.EXTRA_DEVICE),
+                	        data.getDouble(BluetoothHDPService.EXTRA_SYSTOLIC),
+                	        data.getDouble(BluetoothHDPService.EXTRA_DIASTOLIC),
+                	        data.getDouble(BluetoothHDPService.EXTRA_MEAN_ARTERIAL),
+                	        data.getDouble(BluetoothHDPService.EXTRA_PULSE),
+                	        data.getInt(BluetoothHDPService.EXTRA_UNIT),
+                	        data.getLong(BluetoothHDPService.EXTRA_TIME));
                 	String prev = mResultMessage.getText().toString();
-                	mResultMessage.setText(prev+"\n"+BluetoothHDPService.result);
-                	sendToHub();
+                	mResultMessage.setText(prev + "\n*****the measured data are: " + m
+                	        + ". *****\n" + MeasurementStats.getInstance().summary(m.device));
                 	break;
                 default:
                     super.handleMessage(msg);
@@ -151,6 +144,9 @@ public class BluetoothHDPActivity extends Activity {
 
     private final Messenger mMessenger = new Messenger(mIncomingHandler);
 
+    // Requests made before the service is bound.
+    private final ArrayList<Message> mPendingMessages = new ArrayList<Message>();
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -174,8 +170,8 @@ public class BluetoothHDPActivity extends Activity {
         Button registerAppButton = (Button) findViewById(R.id.button_register_app);
         registerAppButton.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
-                sendMessage(BluetoothHDPService.MSG_REG_HEALTH_APP,
-                        HEALTH_PROFILE_SOURCE_DATA_TYPE);
+                // The IEEE 11073 data types are set in res/values/config.xml.
+                sendMessage(BluetoothHDPService.MSG_REG_HEALTH_APP, 0);
                 Log.d(TAG, "register button pressed");
             }
         });
@@ -229,7 +225,9 @@ public class BluetoothHDPActivity extends Activity {
                 disconnectChannel();
             }
         });
-        registerReceiver(mReceiver, initIntentFilter());
+        // Bind right away; the service queues requests until Bluetooth and the Health
+        // profile are ready, so nothing waits for the enable dialog.
+        initialize();
     }
 
     // Sets up communication with {@link BluetoothHDPService}.
@@ -245,6 +243,11 @@ public class BluetoothHDPActivity extends Activity {
                 Log.w(TAG, "Unable to register client to service.");
                 e.printStackTrace();
             }
+            // Requests made before the service was bound.
+            for (Message pending : mPendingMessages) {
+                sendToService(pending);
+            }
+            mPendingMessages.clear();
         }
 
         public void onServiceDisconnected(ComponentName name) {
@@ -256,19 +259,24 @@ public class BluetoothHDPActivity extends Activity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (mHealthService != null) {
+            Message msg = Message.obtain(null, BluetoothHDPService.MSG_UNREG_CLIENT);
+            msg.replyTo = mMessenger;
+            try {
+                mHealthService.send(msg);
+            } catch (RemoteException e) { /* Service is gone already. */ }
+        }
         if (mHealthServiceBound) unbindService(mConnection);
-        unregisterReceiver(mReceiver);
     }
 
     @Override
     protected void onStart() {
         super.onStart();
-        // If Bluetooth is not on, request that it be enabled.
+        // If Bluetooth is not on, request that it be enabled.  The service picks it up through
+        // {@link HdpStartReceiver}.
         if (!mBluetoothAdapter.isEnabled()) {
             Intent enableIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
             startActivityForResult(enableIntent, REQUEST_ENABLE_BT);
-        } else {
-            initialize();
         }
     }
 
@@ -279,9 +287,7 @@ public class BluetoothHDPActivity extends Activity {
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         switch (requestCode) {
         case REQUEST_ENABLE_BT:
-            if (resultCode == Activity.RESULT_OK) {
-                initialize();
-            } else {
+            if (resultCode != Activity.RESULT_OK) {
                 finish();
                 return;
             }
@@ -314,134 +320,37 @@ public class BluetoothHDPActivity extends Activity {
         bindService(intent, mConnection, Context.BIND_AUTO_CREATE);
     }
 
-    // Intent filter and broadcast receive to handle Bluetooth on event.
-    private IntentFilter initIntentFilter() {
-        IntentFilter filter = new IntentFilter();
-        filter.addAction(BluetoothAdapter.ACTION_STATE_CHANGED);
-        return filter;
-    }
-
-    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-            if (BluetoothAdapter.ACTION_STATE_CHANGED.equals(action)) {
-                if (intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR) ==
-                    BluetoothAdapter.STATE_ON) {
-                    initialize();
-                }
-            }
-        }
-    };
-
     // Sends a message to {@link BluetoothHDPService}.
     private void sendMessage(int what, int value) {
-        if (mHealthService == null) {
-            Log.d(TAG, "Health Service not connected.");
-            return;
-        }
-
-        try {
-            mHealthService.send(Message.obtain(null, what, value, 0));
-        } catch (RemoteException e) {
-            Log.w(TAG, "Unable to reach service.");
-            e.printStackTrace();
-        }
+        sendToService(Message.obtain(null, what, value, 0));
     }
 
     // Sends an update message, along with an HDP BluetoothDevice object, to
     // {@link BluetoothHDPService}.  The BluetoothDevice object is needed by the channel creation
     // method.
     private void sendMessageWithDevice(int what) {
+        sendToService(Message.obtain(null, what, mDevice));
+    }
+
+    // Sends now, or once the service is bound.
+    private void sendToService(Message msg) {
         if (mHealthService == null) {
-            Log.d(TAG, "Health Service not connected.");
+            Log.d(TAG, "Health Service not connected yet, queueing " + msg.what);
+            mPendingMessages.add(msg);
             return;
         }
 
         try {
-            mHealthService.send(Message.obtain(null, what, mDevice));
+            mHealthService.send(msg);
         } catch (RemoteException e) {
             Log.w(TAG, "Unable to reach service.");
             e.printStackTrace();
         }
     }
     
-    //function to send data to bp hub
-    public void sendToHub(){
-    	Log.d(TAG, "send to bp hub after new measurement.");
-    	
-    	(new SendDataAsycTask()).execute();
-    }
-    //send function for send button
-    public void send(View view){
-    	Log.d(TAG, "send to bp hub.");
-    	
-    	(new SendDataAsycTask()).execute();
-    }
-    class SendDataAsycTask extends AsyncTask<Void,Void,String>{
-
-		@Override
-		protected String doInBackground(Void... arg0) {
-			HttpClient httpclient = new DefaultHttpClient();
-	    	HttpPost httppost = new HttpPost("https://api.mongolab.com/api/1/databases/bp/collections/measurement?apiKey=fEVne_u88CbaAX6Rv2YsnCdWIfKD5JP-");
-	    	httppost.addHeader("Content-Type","application/json");
-	    	//httppost.addHeader("url", "https://api.mongolab.com/api/1/databases/bp/collections/measurement?apiKey=fEVne_u88CbaAX6Rv2YsnCdWIfKD5JP-");
-	    	//httppost.addHeader("type", "POST");
-	    	
-	    	try {
-	    	    // Add your data
-	    		JSONObject object = new JSONObject();
-	    		  try {
-	    			  object.put("systolic", BluetoothHDPService.results[0]);
-	    			  object.put("diastolic", BluetoothHDPService.results[1]);
-	    			  object.put("pulse", BluetoothHDPService.results[2]);
-	    			  object.put("year", BluetoothHDPService.results[3]);
-	    			  object.put("month", BluetoothHDPService.results[4]);
-	    			  object.put("day", BluetoothHDPService.results[5]);
-	    			  object.put("hour", BluetoothHDPService.results[6]);
-	    			  object.put("minute", BluetoothHDPService.results[7]);
-	    		  } catch (JSONException e) {
-	    			  Log.d(TAG, e.getMessage());
-	    		  }
-	    		  
-	    		  StringEntity s = new StringEntity(object.toString());
-	    		  //s.setContentEncoding((Header)(new BasicHeader(HTTP.CONTENT_TYPE, "application/json")));
-	    		/*
-	    	    List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(8);
-	    	    nameValuePairs.add(new BasicNameValuePair("systolic", "1"));
-	    	    nameValuePairs.add(new BasicNameValuePair("diastolic", "2"));
-	    	    nameValuePairs.add(new BasicNameValuePair("pulse", "3"));
-	    	    nameValuePairs.add(new BasicNameValuePair("year", "4"));
-	    	    nameValuePairs.add(new BasicNameValuePair("month", "5"));
-	    	    nameValuePairs.add(new BasicNameValuePair("day", "6"));
-	    	    nameValuePairs.add(new BasicNameValuePair("hour", "7"));
-	    	    nameValuePairs.add(new BasicNameValuePair("minute", "8"));
-	    	    
-	    	    httppost.setEntity(new UrlEncodedFormEntity(nameValuePairs));
-	    	    */
-	    	    httppost.setEntity(s);
-
-	    	    // Execute HTTP Post Request
-	    	    HttpResponse response = httpclient.execute(httppost);
-	    	    //logging down the response from Mongo Lab
-	    	    byte[] buffer = new byte[200];
-	    	    response.getEntity().getContent().read(buffer);
-	    	    String str = new String(buffer, "UTF8");
-	    	    Log.d(TAG,str);
-
-	    	} catch (ClientProtocolException e) {
-	    		Log.d(TAG, e.getMessage());
-	    	} catch (IOException e) {
-	    		Log.d(TAG, e.getMessage());
-	    	}
-			
-			return null;
-		}
-		
-		protected void onPostExecute(String result) {
-	        Log.d(TAG, "onPostExecute : "+result);
-	     }
-    	
+    // Send button: upload pending readings now rather than at the next sync trigger.
+    public void send(View view) {
+        sendMessage(BluetoothHDPService.MSG_SYNC, 0);
     }
 
     /**
@@ -25,19 +25,38 @@ import android.bluetooth.BluetoothHealth;
 import android.bluetooth.BluetoothHealthAppConfiguration;
 import android.bluetooth.BluetoothHealthCallback;
 import android.bluetooth.BluetoothProfile;
+import android.content.ContentValues;
 import android.content.Intent;
+import android.content.res.Resources;
+import android.database.SQLException;
+import android.os.AsyncTask;
+import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.RemoteCallbackList;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.widget.Toast;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This Service encapsulates Bluetooth Health API to establish, manage, and disconnect
@@ -62,8 +81,8 @@ public class BluetoothHDPService extends Service {
     private static final String TAG = "bp";
 
     byte[] sysId;
-    public static String result = "No measurement data to display now.";
-    public static String[] results = new String[8];
+    public static volatile String result = "No measurement data to display now.";
+    public static volatile Measurement measurement;
     
     public static final int RESULT_OK = 0;
     public static final int RESULT_FAIL = -1;
@@ -77,17 +96,23 @@ public class BluetoothHDPService extends Service {
     public static final int STATUS_CREATE_CHANNEL = 102;
     // Channel destroy complete.
     public static final int STATUS_DESTROY_CHANNEL = 103;
-    // Reading data from Bluetooth HDP device.
+    // Data started arriving on a channel that was quiet; sent once, not per read.
     public static final int STATUS_READ_DATA = 104;
-    // Done with reading data.
+    // The channel closed, e.g. after being idle for channel_idle_ms.
     public static final int STATUS_READ_DATA_DONE = 105;
+    // New aggregates of a streamed metric; the value is the metric code, see getStream().
+    public static final int STATUS_STREAM_DATA = 106;
+    // Upload state changed; the value is a SyncScheduler.STATE_ constant, see getSync().
+    public static final int STATUS_SYNC = 107;
+    // Readings could not be stored and went to FAILED_FILE; the value is their number.
+    public static final int STATUS_STORE_FAILED = 108;
 
     // Message codes received from the UI client.
     // Register client with this service.
     public static final int MSG_REG_CLIENT = 200;
     // Unregister client from this service.
     public static final int MSG_UNREG_CLIENT = 201;
-    // Register health application.
+    // Register health application; arg1 is the data type, 0 for all of health_data_types.
     public static final int MSG_REG_HEALTH_APP = 300;
     // Unregister health application.
     public static final int MSG_UNREG_HEALTH_APP = 301;
@@ -95,50 +120,114 @@ public class BluetoothHDPService extends Service {
     public static final int MSG_CONNECT_CHANNEL = 400;
     // Disconnect channel.
     public static final int MSG_DISCONNECT_CHANNEL = 401;
+    // Upload pending readings now.
+    public static final int MSG_SYNC = 600;
 //show measurement data result in UI
     public static final int SHOW_RESULT = 999;
     
     
-    private BluetoothHealthAppConfiguration mHealthAppConfig;
+    // Sink registrations keyed by IEEE 11073 data type.  Control thread only.
+    private final SparseArray<BluetoothHealthAppConfiguration> mHealthAppConfigs =
+            new SparseArray<BluetoothHealthAppConfiguration>();
     private BluetoothAdapter mBluetoothAdapter;
-    private BluetoothHealth mBluetoothHealth;
+    // Health profile proxy; set and cleared on the control thread.
+    private volatile BluetoothHealth mBluetoothHealth;
+    // Main thread only.
+    private boolean mProxyRequested;
     private BluetoothDevice mDevice;
     private int mChannelId;
 
-    private Messenger mClient;
+    /** Bind action for other applications; returns an {@link IHdpService}. */
+    public static final String ACTION_LISTEN = "com.example.bluetooth.health.action.LISTEN";
+
+    // Bundle keys of SHOW_RESULT messages sent to Messenger clients.
+    public static final String EXTRA_DEVICE = "device";
+    public static final String EXTRA_SYSTOLIC = "systolic";
+    public static final String EXTRA_DIASTOLIC = "diastolic";
+    public static final String EXTRA_MEAN_ARTERIAL = "meanArterial";
+    public static final String EXTRA_PULSE = "pulse";
+    public static final String EXTRA_UNIT = "unit";
+    public static final String EXTRA_TIME = "time";
+
+    // Live event subscribers: Messenger clients, other apps and in-process consumers.  Delivery
+    // runs on two pool threads that time out when idle, never on the reader or session threads.
+    private static final SubscriberRegistry sSubscribers;
+    static {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        sSubscribers = new SubscriberRegistry(executor);
+    }
+
+    // Listeners registered by other applications through IHdpService.
+    private final RemoteCallbackList<IMeasurementListener> mRemoteListeners =
+            new RemoteCallbackList<IMeasurementListener>();
+
+    // Sent by a session's protocol thread once its channel is closed.
+    private static final int CONTROL_SESSION_CLOSED = 500;
+
+    // Health requests received before the profile proxy connects, replayed in order once it
+    // does.  Control thread only.
+    private final ArrayList<Message> mPendingCommands = new ArrayList<Message>();
+    // Data types with a sink registration outstanding.  Control thread only.
+    private final SparseBooleanArray mRegistering = new SparseBooleanArray();
+
+    // Control thread: client requests, Bluetooth Health callbacks and session bookkeeping run
+    // here rather than on the main looper, so UI or main thread stalls in this process do not
+    // delay association handling.  Protocol work for each channel runs on its own session
+    // thread, see {@link ChannelSession}.
+    private HandlerThread mControlThread;
+    private Handler mControlHandler;
+    private Messenger mMessenger;
+
+    // Open channel sessions keyed by channel id.  Only touched on the control thread.
+    private final SparseArray<ChannelSession> mSessions = new SparseArray<ChannelSession>();
 
     // Handles events sent by {@link HealthHDPActivity}.
     private class IncomingHandler extends Handler {
+        IncomingHandler(Looper looper) {
+            super(looper);
+        }
+
         @Override
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 // Register UI client to this service so the client can receive messages.
                 case MSG_REG_CLIENT:
                     Log.d(TAG, "Activity client registered");
-                    mClient = msg.replyTo;
+                    sSubscribers.register(new MessengerSubscriber(msg.replyTo));
                     break;
                 // Unregister UI client from this service.
                 case MSG_UNREG_CLIENT:
-                    mClient = null;
+                    sSubscribers.unregister(new MessengerSubscriber(msg.replyTo));
                     break;
-                // Register health application.
+                // Health requests need the profile proxy.
                 case MSG_REG_HEALTH_APP:
-                	Log.d(TAG, "Register health application");
-                    registerApp(msg.arg1);
-                    break;
-                // Unregister health application.
                 case MSG_UNREG_HEALTH_APP:
-                    unregisterApp();
-                    break;
-                // Connect channel.
                 case MSG_CONNECT_CHANNEL:
-                    mDevice = (BluetoothDevice) msg.obj;
-                    connectChannel();
-                    break;
-                // Disconnect channel.
                 case MSG_DISCONNECT_CHANNEL:
-                    mDevice = (BluetoothDevice) msg.obj;
-                    disconnectChannel();
+                    if (mBluetoothHealth == null) {
+                        Log.d(TAG, "Health proxy not ready, queueing " + msg.what);
+                        mPendingCommands.add(Message.obtain(msg));
+                    } else {
+                        runCommand(msg);
+                    }
+                    break;
+                case MSG_SYNC:
+                    mSync.sync();
+                    break;
+                // Channel session finished and released its threads.
+                case CONTROL_SESSION_CLOSED:
+                    ChannelSession session = (ChannelSession) msg.obj;
+                    if (mSessions.get(msg.arg1) == session) {
+                        mSessions.remove(msg.arg1);
+                    }
+                    // Drop an idle channel as well; the agent opens a new one when it has
+                    // readings again, which starts a new session.
+                    if (session.mIdleReleased && mBluetoothHealth != null) {
+                        mBluetoothHealth.disconnectChannel(session.mDevice, session.mConfig,
+                                msg.arg1);
+                    }
                     break;
                 default:
                     super.handleMessage(msg);
@@ -146,31 +235,78 @@ public class BluetoothHDPService extends Service {
         }
     }
 
-    final Messenger mMessenger = new Messenger(new IncomingHandler());
+    // Runs a health request against the connected profile proxy.
+    private void runCommand(Message msg) {
+        switch (msg.what) {
+            // Register health application.
+            case MSG_REG_HEALTH_APP:
+                Log.d(TAG, "Register health application");
+                if (msg.arg1 != 0) {
+                    registerApp(msg.arg1);
+                } else {
+                    registerApps();
+                }
+                break;
+            // Unregister health application.
+            case MSG_UNREG_HEALTH_APP:
+                unregisterApp();
+                break;
+            // Connect channel.
+            case MSG_CONNECT_CHANNEL:
+                mDevice = (BluetoothDevice) msg.obj;
+                connectChannel();
+                break;
+            // Disconnect channel.
+            case MSG_DISCONNECT_CHANNEL:
+                mDevice = (BluetoothDevice) msg.obj;
+                disconnectChannel();
+                break;
+        }
+    }
 
     /**
      * Make sure Bluetooth and health profile are available on the Android device.  Stop service
-     * if they are not available.
+     * if they are not available.  While Bluetooth is off the service stays up and queues health
+     * requests; {@link HdpStartReceiver} restarts it once Bluetooth is turned on.
      */
     @Override
     public void onCreate() {
         super.onCreate();
+        mControlThread = new HandlerThread("hdp-control");
+        mControlThread.start();
+        mControlHandler = new IncomingHandler(mControlThread.getLooper());
+        mMessenger = new Messenger(mControlHandler);
+        sSubscribers.register(mRemoteSubscriber);
+        mRawLog = new RawSampleLog(new File(getFilesDir(), STREAM_DIR));
+        mTimer = new HashedWheelTimer("hdp-timer", TIMER_TICK_MS, TIMER_TICKS_PER_WHEEL);
+        mSegmentDecoder = new SegmentDecoder(Runtime.getRuntime().availableProcessors());
+        Resources res = getResources();
+        mSync = new SyncScheduler(this, MeasurementSinks.fromConfig(this),
+                MeasurementSinks.needsNetwork(this), res.getInteger(R.integer.sync_batch_size),
+                res.getInteger(R.integer.sync_max_delay_ms), mSyncListener);
+        sSync = mSync;
+        mPipeline = new MeasurementPipeline("hdp-pipeline", mStage,
+                WaitStrategy.forName(res.getString(R.string.pipeline_wait)),
+                res.getInteger(R.integer.pipeline_ring_size),
+                res.getInteger(R.integer.pipeline_batch_size));
+        mPipeline.start();
+        // Loaded on the control thread, before any channel session can start.
+        mControlHandler.post(new Runnable() {
+            public void run() {
+                mDedup = new DedupIndex(new File(getFilesDir(), DEDUP_FILE), DEDUP_CAPACITY);
+                if (!mDedup.isPersistent()) Log.w(TAG, "Dedup index not persisted.");
+            }
+        });
+        mControlHandler.post(mArchiveTask);
+
         mBluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-        if (mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
-            // Bluetooth adapter isn't available.  The client of the service is supposed to
-            // verify that it is available and activate before invoking this service.
+        if (mBluetoothAdapter == null) {
+            // Bluetooth adapter isn't available.
         	Log.d(TAG, "Device not available, adapter null.");
             stopSelf();
             return;
         }
-        if (!mBluetoothAdapter.getProfileProxy(this, mBluetoothServiceListener,
-                BluetoothProfile.HEALTH)) {
-            Toast.makeText(this, R.string.bluetooth_health_profile_not_available,
-                    Toast.LENGTH_LONG);
-            stopSelf();
-            return;
-        }
-        Log.d(TAG, "Bluetooth Profile (health) available");
+        requestProfileProxy();
         
         String android_id = Secure.getString(getBaseContext().getContentResolver(),
                 Secure.ANDROID_ID); 
@@ -184,270 +320,734 @@ public class BluetoothHDPService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.d(TAG, "BluetoothHDPService is running.");
+        // Started again when Bluetooth turns on.
+        if (mBluetoothAdapter != null) requestProfileProxy();
         return START_STICKY;
     }
 
+    // Asks for the Health profile proxy once Bluetooth is on.  The proxy reconnects by itself
+    // after Bluetooth is toggled, so one request per service instance is enough.
+    private void requestProfileProxy() {
+        if (mProxyRequested || !mBluetoothAdapter.isEnabled()) return;
+        if (!mBluetoothAdapter.getProfileProxy(this, mBluetoothServiceListener,
+                BluetoothProfile.HEALTH)) {
+            Toast.makeText(this, R.string.bluetooth_health_profile_not_available,
+                    Toast.LENGTH_LONG);
+            stopSelf();
+            return;
+        }
+        mProxyRequested = true;
+        Log.d(TAG, "Bluetooth Profile (health) requested");
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
+        if (ACTION_LISTEN.equals(intent.getAction())) {
+            return mRemoteService;
+        }
         return mMessenger.getBinder();
     };
 
-    // Register health application through the Bluetooth Health API.
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        sSubscribers.unregister(mRemoteSubscriber);
+        mRemoteListeners.kill();
+        mControlHandler.post(new Runnable() {
+            public void run() {
+                for (int i = 0; i < mSessions.size(); i++) {
+                    mSessions.valueAt(i).close();
+                }
+                mSessions.clear();
+                mTimer.stop();
+                mSegmentDecoder.shutdown();
+                for (Message m : mPendingCommands) {
+                    m.recycle();
+                }
+                mPendingCommands.clear();
+                mRawLog.close();
+                mPipeline.close();
+                try {
+                    if (!mPipeline.join(PIPELINE_JOIN_MS)) {
+                        Log.w(TAG, "Pipeline still busy, stopping sync anyway");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                // After the pipeline, which records the keys of what it stored.
+                if (mDedup != null) mDedup.close();
+                // The last sync run uploads what the pipeline stored; anything left is picked up
+                // from the watermark on the next start.  The hub connections go once it is
+                // done with them.
+                mSync.stop(new Runnable() {
+                    public void run() {
+                        HubClient.shutdown();
+                    }
+                });
+                if (sSync == mSync) sSync = null;
+                mControlHandler.removeCallbacks(mArchiveTask);
+                mControlThread.quit();
+            }
+        });
+    }
+
+    // Register health application through the Bluetooth Health API, one sink configuration
+    // per data type.  Registering again while registered or registering is a no-op, so the UI
+    // and auto-registration do not collide.
     private void registerApp(int dataType) {
-        mBluetoothHealth.registerSinkAppConfiguration(TAG, dataType, mHealthCallback);
+        if (mHealthAppConfigs.get(dataType) != null) {
+            sendMessage(STATUS_HEALTH_APP_REG, RESULT_OK);
+            return;
+        }
+        if (mRegistering.get(dataType)) return;
+        boolean registering = mBluetoothHealth.registerSinkAppConfiguration(TAG, dataType,
+                mHealthCallback);
+        mRegistering.put(dataType, registering);
+        if (!registering) sendMessage(STATUS_HEALTH_APP_REG, RESULT_FAIL);
+    }
+
+    // Registers a sink for every data type in health_data_types.
+    private void registerApps() {
+        for (int dataType : getResources().getIntArray(R.array.health_data_types)) {
+            registerApp(dataType);
+        }
     }
 
     // Unregister health application through the Bluetooth Health API.
     private void unregisterApp() {
-        mBluetoothHealth.unregisterAppConfiguration(mHealthAppConfig);
+        for (int i = 0; i < mHealthAppConfigs.size(); i++) {
+            mBluetoothHealth.unregisterAppConfiguration(mHealthAppConfigs.valueAt(i));
+        }
+    }
+
+    // Whether the configuration is one of our sink registrations.
+    private boolean isRegistered(BluetoothHealthAppConfiguration config) {
+        for (int i = 0; i < mHealthAppConfigs.size(); i++) {
+            if (config.equals(mHealthAppConfigs.valueAt(i))) return true;
+        }
+        return false;
     }
 
-    // Connect channel through the Bluetooth Health API.
+    // Proxy is ready: register the sinks for agent-initiated connections if configured, then
+    // replay what arrived before.
+    private void onProfileProxyConnected() {
+        if (getResources().getBoolean(R.bool.auto_register)) {
+            registerApps();
+        }
+        for (Message m : mPendingCommands) {
+            runCommand(m);
+            m.recycle();
+        }
+        mPendingCommands.clear();
+    }
+
+    // Connect channel through the Bluetooth Health API, with the sink of the first configured
+    // data type that is registered.
     private void connectChannel() {
         Log.i(TAG, "connectChannel()");
-        mBluetoothHealth.connectChannelToSource(mDevice, mHealthAppConfig);
+        for (int dataType : getResources().getIntArray(R.array.health_data_types)) {
+            BluetoothHealthAppConfiguration config = mHealthAppConfigs.get(dataType);
+            if (config != null) {
+                mBluetoothHealth.connectChannelToSource(mDevice, config);
+                return;
+            }
+        }
+        sendMessage(STATUS_CREATE_CHANNEL, RESULT_FAIL);
     }
 
     // Disconnect channel through the Bluetooth Health API.
     private void disconnectChannel() {
         Log.i(TAG, "disconnectChannel()");
-        mBluetoothHealth.disconnectChannel(mDevice, mHealthAppConfig, mChannelId);
+        ChannelSession session = mSessions.get(mChannelId);
+        if (session == null) return;
+        mBluetoothHealth.disconnectChannel(mDevice, session.mConfig, mChannelId);
     }
 
     // Callbacks to handle connection set up and disconnection clean up.
     private final BluetoothProfile.ServiceListener mBluetoothServiceListener =
             new BluetoothProfile.ServiceListener() {
-        public void onServiceConnected(int profile, BluetoothProfile proxy) {
+        public void onServiceConnected(int profile, final BluetoothProfile proxy) {
             if (profile == BluetoothProfile.HEALTH) {
-                mBluetoothHealth = (BluetoothHealth) proxy;
                 if (Log.isLoggable(TAG, Log.DEBUG))
                     Log.d(TAG, "onServiceConnected to profile: " + profile);
+                mControlHandler.post(new Runnable() {
+                    public void run() {
+                        mBluetoothHealth = (BluetoothHealth) proxy;
+                        onProfileProxyConnected();
+                    }
+                });
             }
         }
 
         public void onServiceDisconnected(int profile) {
             if (profile == BluetoothProfile.HEALTH) {
-                mBluetoothHealth = null;
+                mControlHandler.post(new Runnable() {
+                    public void run() {
+                        // Registrations do not survive the Bluetooth service.
+                        mBluetoothHealth = null;
+                        mHealthAppConfigs.clear();
+                        mRegistering.clear();
+                    }
+                });
             }
         }
     };
 
+    // Bluetooth Health callbacks are forwarded to the control thread, so all channel
+    // bookkeeping is serialized there.
     private final BluetoothHealthCallback mHealthCallback = new BluetoothHealthCallback() {
-        // Callback to handle application registration and unregistration events.  The service
-        // passes the status back to the UI client.
-        public void onHealthAppConfigurationStatusChange(BluetoothHealthAppConfiguration config,
-                int status) {
-            if (status == BluetoothHealth.APP_CONFIG_REGISTRATION_FAILURE) {
-                mHealthAppConfig = null;
-                sendMessage(STATUS_HEALTH_APP_REG, RESULT_FAIL);
-            } else if (status == BluetoothHealth.APP_CONFIG_REGISTRATION_SUCCESS) {
-                mHealthAppConfig = config;
-                sendMessage(STATUS_HEALTH_APP_REG, RESULT_OK);
-            } else if (status == BluetoothHealth.APP_CONFIG_UNREGISTRATION_FAILURE ||
-                    status == BluetoothHealth.APP_CONFIG_UNREGISTRATION_SUCCESS) {
-                sendMessage(STATUS_HEALTH_APP_UNREG,
-                        status == BluetoothHealth.APP_CONFIG_UNREGISTRATION_SUCCESS ?
-                        RESULT_OK : RESULT_FAIL);
-            }
+        public void onHealthAppConfigurationStatusChange(
+                final BluetoothHealthAppConfiguration config, final int status) {
+            mControlHandler.post(new Runnable() {
+                public void run() {
+                    onAppConfigurationStatusChange(config, status);
+                }
+            });
         }
 
-        // Callback to handle channel connection state changes.
-        // Note that the logic of the state machine may need to be modified based on the HDP device.
-        // When the HDP device is connected, the received file descriptor is passed to the
-        // ReadThread to read the content.
-        public void onHealthChannelStateChange(BluetoothHealthAppConfiguration config,
-                BluetoothDevice device, int prevState, int newState, ParcelFileDescriptor fd,
-                int channelId) {
-            if (Log.isLoggable(TAG, Log.DEBUG))
-                Log.d(TAG, String.format("prevState\t%d ----------> newState\t%d",
-                        prevState, newState));
-            if (prevState == BluetoothHealth.STATE_CHANNEL_DISCONNECTED &&
-                    newState == BluetoothHealth.STATE_CHANNEL_CONNECTED) {
-            	Log.d(TAG, "+++++ state: disconnected -> connected.");
-                if (config.equals(mHealthAppConfig)) {
-                    mChannelId = channelId;
-                    sendMessage(STATUS_CREATE_CHANNEL, RESULT_OK);
-                    (new ReadThread(fd)).start();
-                } else {
-                    sendMessage(STATUS_CREATE_CHANNEL, RESULT_FAIL);
+        public void onHealthChannelStateChange(final BluetoothHealthAppConfiguration config,
+                final BluetoothDevice device, final int prevState, final int newState,
+                final ParcelFileDescriptor fd, final int channelId) {
+            mControlHandler.post(new Runnable() {
+                public void run() {
+                    onChannelStateChange(config, device, prevState, newState, fd, channelId);
                 }
-            } else if(prevState == BluetoothHealth.STATE_CHANNEL_CONNECTING &&
-                    newState == BluetoothHealth.STATE_CHANNEL_CONNECTED){
-            	Log.d(TAG, "+++++ state: connecting -> connected.");
-            	if (config.equals(mHealthAppConfig)) {
-                    mChannelId = channelId;
-                    sendMessage(STATUS_CREATE_CHANNEL, RESULT_OK);
-                    (new ReadThread(fd)).start();
-                } else {
-                    sendMessage(STATUS_CREATE_CHANNEL, RESULT_FAIL);
-                } //############ modified case
-            }else if (prevState == BluetoothHealth.STATE_CHANNEL_CONNECTING &&
-                       newState == BluetoothHealth.STATE_CHANNEL_DISCONNECTED) {
-            	Log.d(TAG, "+++++ state: connecting -> disconnected.");
+            });
+        }
+    };
+
+    // Handles application registration and unregistration events.  The service passes the
+    // status back to the UI client.
+    private void onAppConfigurationStatusChange(BluetoothHealthAppConfiguration config,
+            int status) {
+        int dataType = config.getDataType();
+        if (status == BluetoothHealth.APP_CONFIG_REGISTRATION_FAILURE) {
+            mRegistering.delete(dataType);
+            mHealthAppConfigs.remove(dataType);
+            sendMessage(STATUS_HEALTH_APP_REG, RESULT_FAIL);
+        } else if (status == BluetoothHealth.APP_CONFIG_REGISTRATION_SUCCESS) {
+            mRegistering.delete(dataType);
+            mHealthAppConfigs.put(dataType, config);
+            sendMessage(STATUS_HEALTH_APP_REG, RESULT_OK);
+        } else if (status == BluetoothHealth.APP_CONFIG_UNREGISTRATION_FAILURE ||
+                status == BluetoothHealth.APP_CONFIG_UNREGISTRATION_SUCCESS) {
+            if (status == BluetoothHealth.APP_CONFIG_UNREGISTRATION_SUCCESS) {
+                mHealthAppConfigs.remove(dataType);
+            }
+            sendMessage(STATUS_HEALTH_APP_UNREG,
+                    status == BluetoothHealth.APP_CONFIG_UNREGISTRATION_SUCCESS ?
+                    RESULT_OK : RESULT_FAIL);
+        }
+    }
+
+    // Handles channel connection state changes.
+    // Note that the logic of the state machine may need to be modified based on the HDP device.
+    // When the HDP device is connected, the received file descriptor is passed to a new
+    // ChannelSession which reads and interprets the content.
+    private void onChannelStateChange(BluetoothHealthAppConfiguration config,
+            BluetoothDevice device, int prevState, int newState, ParcelFileDescriptor fd,
+            int channelId) {
+        if (Log.isLoggable(TAG, Log.DEBUG))
+            Log.d(TAG, String.format("prevState\t%d ----------> newState\t%d",
+                    prevState, newState));
+        if (prevState == BluetoothHealth.STATE_CHANNEL_DISCONNECTED &&
+                newState == BluetoothHealth.STATE_CHANNEL_CONNECTED) {
+        	Log.d(TAG, "+++++ state: disconnected -> connected.");
+            if (isRegistered(config)) {
+                mChannelId = channelId;
+                sendMessage(STATUS_CREATE_CHANNEL, RESULT_OK);
+                startSession(channelId, config, device, fd);
+            } else {
                 sendMessage(STATUS_CREATE_CHANNEL, RESULT_FAIL);
-            } else if (newState == BluetoothHealth.STATE_CHANNEL_DISCONNECTED) {
-            	Log.d(TAG, "+++++ state: whatever -> disconnected.");
-                if (config.equals(mHealthAppConfig)) {
-                    sendMessage(STATUS_DESTROY_CHANNEL, RESULT_OK);
-                } else {
-                    sendMessage(STATUS_DESTROY_CHANNEL, RESULT_FAIL);
-                }
+            }
+        } else if(prevState == BluetoothHealth.STATE_CHANNEL_CONNECTING &&
+                newState == BluetoothHealth.STATE_CHANNEL_CONNECTED){
+        	Log.d(TAG, "+++++ state: connecting -> connected.");
+        	if (isRegistered(config)) {
+                mChannelId = channelId;
+                sendMessage(STATUS_CREATE_CHANNEL, RESULT_OK);
+                startSession(channelId, config, device, fd);
+            } else {
+                sendMessage(STATUS_CREATE_CHANNEL, RESULT_FAIL);
+            } //############ modified case
+        }else if (prevState == BluetoothHealth.STATE_CHANNEL_CONNECTING &&
+                   newState == BluetoothHealth.STATE_CHANNEL_DISCONNECTED) {
+        	Log.d(TAG, "+++++ state: connecting -> disconnected.");
+            sendMessage(STATUS_CREATE_CHANNEL, RESULT_FAIL);
+        } else if (newState == BluetoothHealth.STATE_CHANNEL_DISCONNECTED) {
+        	Log.d(TAG, "+++++ state: whatever -> disconnected.");
+            if (isRegistered(config)) {
+                sendMessage(STATUS_DESTROY_CHANNEL, RESULT_OK);
+            } else {
+                sendMessage(STATUS_DESTROY_CHANNEL, RESULT_FAIL);
             }
         }
-    };
+    }
+
+    private void startSession(int channelId, BluetoothHealthAppConfiguration config,
+            BluetoothDevice device, ParcelFileDescriptor fd) {
+        ChannelSession previous = mSessions.get(channelId);
+        if (previous != null) previous.close();
+        ChannelSession session = new ChannelSession(channelId, config, device, fd);
+        mSessions.put(channelId, session);
+        session.start();
+    }
+
+    /**
+     * Registry for in-process consumers of live events, e.g. widgets.  Subscribers stay
+     * registered across service restarts.
+     */
+    public static SubscriberRegistry subscribers() {
+        return sSubscribers;
+    }
 
-    // Sends an update message to registered UI client.
+    // Publishes a status update to all subscribers.
     private void sendMessage(int what, int value) {
-        if (mClient == null) {
-            Log.d(TAG, "No clients registered.");
-            return;
+        sSubscribers.publish(HdpEvent.status(what, value));
+    }
+
+    // Delivers events to a Messenger client such as {@link BluetoothHDPActivity}.
+    private static final class MessengerSubscriber implements SubscriberRegistry.Subscriber {
+        private final Messenger mMessenger;
+
+        MessengerSubscriber(Messenger messenger) {
+            mMessenger = messenger;
+        }
+
+        public boolean onEvent(HdpEvent event) {
+            Message msg = Message.obtain(null, event.what, event.value, 0);
+            if (event.type == HdpEvent.TYPE_MEASUREMENT) {
+                Measurement m = event.measurement;
+                Bundle data = new Bundle();
+                data.putString(EXTRA_DEVICE, m.device);
+                data.putDouble(EXTRA_SYSTOLIC, m.systolic);
+                data.putDouble(EXTRA_DIASTOLIC, m.diastolic);
+                data.putDouble(EXTRA_MEAN_ARTERIAL, m.meanArterial);
+                data.putDouble(EXTRA_PULSE, m.pulse);
+                data.putInt(EXTRA_UNIT, m.unit);
+                data.putLong(EXTRA_TIME, m.time);
+                msg.setData(data);
+            }
+            try {
+                mMessenger.send(msg);
+                return true;
+            } catch (RemoteException e) {
+                // Client process is gone.
+                Log.d(TAG, "Dropping unreachable client.");
+                return false;
+            }
         }
 
-        try {
-            mClient.send(Message.obtain(null, what, value, 0));
-        } catch (RemoteException e) {
-            // Unable to reach client.
-            e.printStackTrace();
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof MessengerSubscriber
+                    && ((MessengerSubscriber) o).mMessenger.equals(mMessenger);
+        }
+
+        @Override
+        public int hashCode() {
+            return mMessenger.hashCode();
         }
     }
 
-    int count; //#####
-    byte[] invoke = new byte[2];
+    // Delivers events to all listeners of other applications.  Dead listeners are removed by
+    // RemoteCallbackList itself.
+    private final SubscriberRegistry.Subscriber mRemoteSubscriber =
+            new SubscriberRegistry.Subscriber() {
+        public boolean onEvent(HdpEvent event) {
+            int n = mRemoteListeners.beginBroadcast();
+            try {
+                for (int i = 0; i < n; i++) {
+                    IMeasurementListener listener = mRemoteListeners.getBroadcastItem(i);
+                    try {
+                        if (event.type == HdpEvent.TYPE_MEASUREMENT) {
+                            Measurement m = event.measurement;
+                            listener.onMeasurement(m.device, m.systolic, m.diastolic,
+                                    m.meanArterial, m.pulse, m.unit, m.time);
+                        } else {
+                            listener.onStatus(event.what, event.value);
+                        }
+                    } catch (RemoteException e) { /* Removed by RemoteCallbackList. */ }
+                }
+            } finally {
+                mRemoteListeners.finishBroadcast();
+            }
+            return true;
+        }
+    };
+
+    private final IHdpService.Stub mRemoteService = new IHdpService.Stub() {
+        public void registerListener(IMeasurementListener listener) {
+            if (listener != null) mRemoteListeners.register(listener);
+        }
+
+        public void unregisterListener(IMeasurementListener listener) {
+            if (listener != null) mRemoteListeners.unregister(listener);
+        }
+    };
+
     public static final int RECEIVED_SYS = 901;
     public static final int RECEIVED_DIA = 902;
     public static final int RECEIVED_PUL = 903;
-    
-    // Thread to read incoming data received from the HDP device.  This sample application merely
-    // reads the raw byte from the incoming file descriptor.  The data should be interpreted using
-    // a health manager which implements the IEEE 11073-xxxxx specifications.
-    private class ReadThread extends Thread {
-        private ParcelFileDescriptor mFd;
-
-        public ReadThread(ParcelFileDescriptor fd) {
-            super();
+
+    // Messages handled on a session's protocol thread.
+    private static final int SESSION_APDU = 1;
+    private static final int SESSION_CLOSED = 3;
+
+    // Largest APDU: a 4 byte header and up to 64k of payload, e.g. a segment data report.
+    private static final int APDU_BUFFER_SIZE = 4 + 0xFFFF;
+    // After this long without an APDU the next one is reported with STATUS_READ_DATA again.
+    private static final long READ_QUIET_MS = 5000;
+
+    // Number of recent readings remembered to drop re-sent duplicates.
+    private static final int DEDUP_CAPACITY = 4096;
+    private static final String DEDUP_FILE = "dedup.idx";
+    private volatile DedupIndex mDedup;
+
+    // One timer thread drives the 20601 timeouts of all channel sessions.
+    private static final long TIMER_TICK_MS = 100;
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
+    private HashedWheelTimer mTimer;
+    // Decodes PM-store downloads of all channel sessions.
+    private SegmentDecoder mSegmentDecoder;
+
+    // Readings older than archive_after_days move to the columnar archive; checked at start
+    // and then daily.
+    private static final long ARCHIVE_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+
+    private final Runnable mArchiveTask = new Runnable() {
+        public void run() {
+            final long cutoff = System.currentTimeMillis() - getResources().getInteger(
+                    R.integer.archive_after_days) * 24 * 60 * 60 * 1000L;
+            // Off the control thread; the first run on an old store can take a while.
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    new MeasurementArchiver(BluetoothHDPService.this).archive(cutoff);
+                }
+            });
+            mControlHandler.postDelayed(this, ARCHIVE_INTERVAL_MS);
+        }
+    };
+
+    // Readings of all channels go through one pipeline to the downstream stage below, so a
+    // slow database or network never holds up a channel.
+    private MeasurementPipeline mPipeline;
+    // Longest teardown waits for the pipeline to store its last readings.
+    private static final long PIPELINE_JOIN_MS = 5000;
+    // Uploads are coalesced rather than made for every batch.
+    private SyncScheduler mSync;
+    private static volatile SyncScheduler sSync;
+
+    /** Upload scheduler of the running service, or null. */
+    public static SyncScheduler getSync() {
+        return sSync;
+    }
+
+    private final SyncScheduler.Listener mSyncListener = new SyncScheduler.Listener() {
+        public void onSyncState(SyncScheduler scheduler, int state) {
+            sendMessage(STATUS_SYNC, state);
+        }
+    };
+
+    // Statistics, storage, notification and queueing for upload of new readings, a batch at a
+    // time on the pipeline thread.
+    private final MeasurementPipeline.Stage mStage = new MeasurementPipeline.Stage() {
+        public void onBatch(Measurement[] batch, int count) {
+            ContentValues[] values = new ContentValues[count];
+            for (int i = 0; i < count; i++) {
+                Measurement m = batch[i];
+                MeasurementStats.Summary summary = MeasurementStats.getInstance().add(m);
+                measurement = m;
+                result = "*****the measured data are: " + m + ". *****\n" + summary;
+                values[i] = MeasurementProvider.toValues(m);
+            }
+            Log.d(TAG, result);
+            boolean stored = false;
+            try {
+                getContentResolver().bulkInsert(MeasurementContract.CONTENT_URI, values);
+                stored = true;
+            } catch (SQLException e) {
+                // Their dedup keys are not recorded, so the agent's re-sends get through.
+                Log.e(TAG, "Failed to store readings", e);
+            }
+            DedupIndex dedup = mDedup;
+            if (stored && dedup != null) {
+                for (int i = 0; i < count; i++) {
+                    if (batch[i].dedupKey != 0) dedup.add(batch[i].dedupKey);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                sSubscribers.publish(HdpEvent.measurement(batch[i]));
+            }
+            mSync.onStored();
+        }
+
+        // Keeps the readings in a dead-letter file for recovery.  Their dedup keys are only
+        // recorded once stored, so the agent's re-sends are still accepted.
+        public void onFailed(Measurement[] batch, int count, RuntimeException e) {
+            try {
+                new LocalFileSink(new File(getFilesDir(), FAILED_FILE))
+                        .send(Arrays.asList(batch).subList(0, count));
+            } catch (IOException e2) {
+                Log.e(TAG, "Failed to save " + count + " readings to " + FAILED_FILE, e2);
+            }
+            sendMessage(STATUS_STORE_FAILED, count);
+        }
+    };
+
+    // Readings the stage failed on, as JSON lines in the files dir.
+    private static final String FAILED_FILE = "failed.jsonl";
+
+    // Raw samples of streaming agents, written a batch at a time.
+    private static final String STREAM_DIR = "streams";
+    private RawSampleLog mRawLog;
+
+    // Latest stream of each device and metric, for displays.
+    private static final ConcurrentHashMap<String, SampleStream> sStreams =
+            new ConcurrentHashMap<String, SampleStream>();
+
+    /** Most recent stream of a metric of a device, or null.  Read it with copyBuckets(). */
+    public static SampleStream getStream(String device, int metric) {
+        return sStreams.get(device + "/" + metric);
+    }
+
+    private static final SampleStream.BucketListener sBucketListener =
+            new SampleStream.BucketListener() {
+        public void onBucket(SampleStream stream) {
+            // Coalesced per subscriber, so a fast stream costs at most one queued event.
+            sSubscribers.publish(HdpEvent.status(STATUS_STREAM_DATA, stream.getMetric()));
+        }
+    };
+
+    /**
+     * Android host for one connected health channel.  The 20601 logic lives in the
+     * platform-independent {@link ManagerSession}; this class only supplies its threads:
+     *
+     * - a reader thread which does nothing but block on the channel descriptor and hand every
+     *   received APDU to the protocol thread, and
+     * - a protocol {@link HandlerThread} on which the ManagerSession runs and from which all
+     *   responses are written.
+     *
+     * Sessions share no mutable protocol state, so a slow channel cannot delay another one, and
+     * nothing here runs on the service main thread.
+     */
+    private class ChannelSession implements Handler.Callback, ManagerSession.Transport,
+            ManagerSession.Scheduler, ManagerSession.Listener {
+        private final int mChannelId;
+        // Sink registration the channel was opened on.
+        private final BluetoothHealthAppConfiguration mConfig;
+        private final BluetoothDevice mDevice;
+        private final ParcelFileDescriptor mFd;
+        private final FileOutputStream mOut;
+        private final HandlerThread mProtocolThread;
+        private final Handler mHandler;
+        private final Thread mReader;
+        private final ManagerSession mSession;
+        // Streamed metrics of this channel keyed by metric code.  Protocol thread only.
+        private final SparseArray<SampleStream> mStreams = new SparseArray<SampleStream>();
+        private final MeasurementPipeline.Channel mReadings = mPipeline.open();
+        // Quiet period after which the association is released, 0 to keep it.
+        private final long mIdleMs;
+        // Uptime of the last APDU, and whether status went out since the channel was last
+        // quiet for READ_QUIET_MS.  Protocol thread only.
+        private long mLastApdu;
+        private boolean mActive;
+        private HashedWheelTimer.Timeout mIdleTimeout;
+        // Set when released for being idle; read on the control thread after the close.
+        volatile boolean mIdleReleased;
+
+        private final Runnable mIdleCheck = new Runnable() {
+            public void run() {
+                checkIdle();
+            }
+        };
+
+        ChannelSession(int channelId, BluetoothHealthAppConfiguration config,
+                BluetoothDevice device, ParcelFileDescriptor fd) {
+            mChannelId = channelId;
+            mConfig = config;
+            mDevice = device;
             mFd = fd;
+            mOut = new FileOutputStream(fd.getFileDescriptor());
+            mProtocolThread = new HandlerThread("hdp-session-" + channelId,
+                    Process.THREAD_PRIORITY_MORE_FAVORABLE);
+            mProtocolThread.start();
+            mHandler = new Handler(mProtocolThread.getLooper(), this);
+            mReader = new ReadThread();
+            mSession = new ManagerSession(device.getAddress(), this, this, this, mDedup,
+                    mSegmentDecoder);
+            mIdleMs = getResources().getInteger(R.integer.channel_idle_ms);
         }
 
-        @Override
-        public void run() {
-            FileInputStream fis = new FileInputStream(mFd.getFileDescriptor());
-            final byte data[] = new byte[1000];
+        void start() {
+            mHandler.post(new Runnable() {
+                public void run() {
+                    mLastApdu = SystemClock.uptimeMillis();
+                    mSession.start();
+                    if (mIdleMs > 0) mIdleTimeout = schedule(mIdleCheck, mIdleMs);
+                }
+            });
+            mReader.start();
+        }
+
+        // Closes the descriptor, which makes the reader thread return and tear down the session.
+        public void close() {
             try {
-                while(fis.read(data) > -1) {
-                    // At this point, the application can pass the raw data to a parser that
-                    // has implemented1 the IEEE 11073-xxxxx specifications.  Instead, this sample
-                    // simply indicates1 that some data has been received.
-                	/*Log.d(TAG, "addr: "+data.toString());
-                    String str = bytesTo132Hex(data);
-                    Log.d(TAG, "Content: "+str);*/ //############
-                	
-                	if (data[0] != (byte) 0x00)
-                    {
-                        String test = byte2hex(data);
-                        Log.i(TAG, test);
-                        if(data[0] == (byte) 0xE2){
-                            Log.i(TAG, "E2");
-                            count = 1;
-                            (new WriteThread(mFd)).start();
-                            try {
-                                sleep(100);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                            count = 2;
-                            (new WriteThread(mFd)).start();
-                        }
-                        else if (data[0] == (byte)0xE7){
-                            Log.i(TAG, "E7");
-
-                            
-                            if (data[18] == (byte) 0x0d && data[19] == (byte) 0x1f)  //fixed report
-                            {
-                                count = 3; 
-                                //set invoke id so get correct response
-                                invoke = new byte[] { data[6], data[7] };
-                                //write back response
-                                (new WriteThread(mFd)).start();     
-                                //parse data!!
-                                int systolic, diastolic, pulse;
-                                String year, month, day, hour, minute;
-                                byte byte2[] = new byte[2];
-                                byte byte1[] = new byte[1];
-                                systolic = (data[45]>=0?data[45]:256+data[45]);  //in case overflow > 127
-                                diastolic = (data[47]>=0?data[47]:256+data[47]);
-                                pulse = data[63];
-                                byte2[0] = data[50]; byte2[1] = data[51];
-                                year = bytesToHex(byte2);
-                                byte1[0] = data[52];
-                                month = bytesToHex(byte1);
-                                byte1[0] = data[53];
-                                day = bytesToHex(byte1);
-                                byte1[0] = data[54];
-                                hour = bytesToHex(byte1);
-                                byte1[0] = data[55];
-                                minute = bytesToHex(byte1);
-                                result = "*****the measured data are: Systolic = "+systolic+", Diastolic = "
-                                		+diastolic+", pulse = "+pulse+" at "+year+"-"+month+"-"+day+" "
-                                		+hour+":"+minute+". *****";
-                                results[0]=systolic+""; results[1]=diastolic+"";results[2]=pulse+"";results[3]=year;
-                                results[4]=month;results[5]=day;results[6]=hour;results[7]=minute;
-                                Log.d(TAG, result);
-                                sendMessage(SHOW_RESULT, 0);
-                                
-                            }
-                            else
-                            {
-                            	for (int i = 0; i < data.length; i++){
-                                    data[i] = (byte) 0x00;
-                                }
-                                count = 2; 
-                                fis.read(data);
-                                String test1 = byte2hex(data);
-                                Log.i(TAG, "ALL_ZERO:"+test1);
-                                
-                                
-                                
-                                try {
-                                    sleep(300);
-                                } catch (InterruptedException e) {
-                                    e.printStackTrace();
-                                }
-                            	/*
-                            	//###########################
-                            	count = 3; 
-                                //set invoke id so get correct response
-                                invoke = new byte[] { data[6], data[7] };
-                                //write back response
-                                (new WriteThread(mFd)).start();  
-                                */ //comment out on 20 March, early morning 
-                            }
-                        }
-                        else if (data[0] == (byte) 0xE4)
-                        {
-                            count = 4;
-                            (new WriteThread(mFd)).start();
-//                          sendMessage();
+                mFd.close();
+            } catch (IOException e) { /* Do nothing. */ }
+        }
+
+        // Thread to read incoming data received from the HDP device.  Each read is copied and
+        // passed to the protocol thread so the descriptor is drained without waiting for the
+        // APDU to be handled.
+        private class ReadThread extends Thread {
+            ReadThread() {
+                super("hdp-reader-" + mChannelId);
+            }
+
+            @Override
+            public void run() {
+                FileInputStream fis = new FileInputStream(mFd.getFileDescriptor());
+                final byte data[] = new byte[APDU_BUFFER_SIZE];
+                try {
+                    int n;
+                    while ((n = fis.read(data)) > -1) {
+                        if (n > 0) {
+                            mHandler.obtainMessage(SESSION_APDU, n, 0,
+                                    Arrays.copyOf(data, n)).sendToTarget();
                         }
-                        //zero out the data
-                        for (int i = 0; i < data.length; i++){
-                            data[i] = (byte) 0x00;
+                    }
+                } catch (IOException ioe) {}
+                mHandler.sendEmptyMessage(SESSION_CLOSED);
+            }
+        }
+
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case SESSION_APDU:
+                    byte[] data = (byte[]) msg.obj;
+                    if (Log.isLoggable(TAG, Log.VERBOSE))
+                        Log.v(TAG, byte2hex(data));
+                    mLastApdu = SystemClock.uptimeMillis();
+                    if (!mActive) {
+                        // Status goes out when the channel wakes up, not for every read.
+                        mActive = true;
+                        sendMessage(STATUS_READ_DATA, 0);
+                        if (mIdleTimeout == null) {
+                            mIdleTimeout = schedule(mIdleCheck, nextCheck(0));
                         }
                     }
-                	
-                    sendMessage(STATUS_READ_DATA, 0);
+                    try {
+                        mSession.onApdu(data, msg.arg1);
+                    } catch (IOException e) {
+                        onError(mSession, e);
+                    }
+                    return true;
+                case SESSION_CLOSED:
+                    if (mIdleTimeout != null) mIdleTimeout.cancel();
+                    mSession.onClosed();
+                    for (int i = 0; i < mStreams.size(); i++) {
+                        mStreams.valueAt(i).close();
+                    }
+                    mRawLog.close(mSession.getAddress());
+                    mReadings.close();
+                    mHandler.removeCallbacksAndMessages(null);
+                    close();
+                    mProtocolThread.quit();
+                    mControlHandler.obtainMessage(CONTROL_SESSION_CLOSED, mChannelId, 0, this)
+                            .sendToTarget();
+                    sendMessage(STATUS_READ_DATA_DONE, 0);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        // The idle check runs once per quiet period rather than being re-armed for every APDU.
+        // It marks the channel quiet after READ_QUIET_MS, and releases it after mIdleMs if
+        // set.  Without idle release it stops once the channel is quiet; the next APDU re-arms
+        // it.
+        private void checkIdle() {
+            long quiet = SystemClock.uptimeMillis() - mLastApdu;
+            if (quiet >= READ_QUIET_MS) mActive = false;
+            mIdleTimeout = null;
+            if (mIdleMs == 0 || quiet < mIdleMs) {
+                if (mActive || mIdleMs > 0) mIdleTimeout = schedule(mIdleCheck, nextCheck(quiet));
+                return;
+            }
+            Log.i(TAG, "Channel " + mChannelId + " idle for " + quiet + " ms, releasing");
+            mIdleReleased = true;
+            try {
+                // Closes the channel once the agent answers or TO_release expires.
+                mSession.release();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        // Delay until the next idle check after the channel has been quiet for that long.
+        private long nextCheck(long quiet) {
+            long delay = mActive ? READ_QUIET_MS - quiet : Long.MAX_VALUE;
+            if (mIdleMs > 0) delay = Math.min(delay, mIdleMs - quiet);
+            return delay;
+        }
+
+        public void send(byte[] apdu) throws IOException {
+            mOut.write(apdu);
+        }
+
+        public HashedWheelTimer.Timeout schedule(final Runnable task, long delayMs) {
+            return mTimer.newTimeout(new Runnable() {
+                public void run() {
+                    mHandler.post(task);
                 }
-                
-            } catch(IOException ioe) {}
-            if (mFd != null) {
-                try {
-                    mFd.close();
-                } catch (IOException e) { /* Do nothing. */ }
+            }, delayMs);
+        }
+
+        public void post(Runnable task) {
+            mHandler.post(task);
+        }
+
+        public void onAssociated(ManagerSession session) {
+            Log.i(TAG, "Association Responsed!");
+        }
+
+        public void onMeasurement(ManagerSession session, Measurement m) {
+            mReadings.publish(m);
+        }
+
+        public void onDuplicate(ManagerSession session, Measurement m) {
+            Log.d(TAG, "Duplicate reading dropped: " + m);
+        }
+
+        public void onSample(ManagerSession session, int metric, long time, double value) {
+            SampleStream stream = mStreams.get(metric);
+            if (stream == null) {
+                Resources res = getResources();
+                stream = new SampleStream(session.getAddress(), metric,
+                        res.getInteger(R.integer.stream_bucket_ms),
+                        res.getInteger(R.integer.stream_buckets),
+                        res.getInteger(R.integer.stream_batch_size), mRawLog, sBucketListener);
+                mStreams.put(metric, stream);
+                sStreams.put(session.getAddress() + "/" + metric, stream);
             }
-            sendMessage(STATUS_READ_DATA_DONE, 0);
+            stream.add(time, value);
+        }
+
+        public void onReleased(ManagerSession session) {
+            Log.i(TAG, "Association Released!");
+        }
+
+        public void onAborted(ManagerSession session) {
+            Log.w(TAG, "Association aborted on channel " + mChannelId);
+        }
+
+        public void onError(ManagerSession session, IOException e) {
+            Log.w(TAG, "Write failed on channel " + mChannelId);
         }
-        
     }
-    
+
     // method to convert byte array to hex string
     public static String bytesToHex(byte[] bytes) {
         final char[] hexArray = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
@@ -505,95 +1105,6 @@ public class BluetoothHDPService extends Service {
         return 0x00 << 24 | b & 0xff;
       }
     
-    private class WriteThread extends Thread {
-        private ParcelFileDescriptor mFd;
-
-        public WriteThread(ParcelFileDescriptor fd) {
-            super();
-            mFd = fd;
-        }
-
-        @Override
-        public void run() {
-            FileOutputStream fos = new FileOutputStream(mFd.getFileDescriptor());
-            final byte data_AR[] = new byte[] {         (byte) 0xE3, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x2C, 
-                                                        (byte) 0x00, (byte) 0x00,
-                                                        (byte) 0x50, (byte) 0x79,
-                                                        (byte) 0x00, (byte) 0x26,
-                                                        (byte) 0x80, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-                                                        (byte) 0x80, (byte) 0x00,
-                                                        (byte) 0x80, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-                                                        (byte) 0x80, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x08,  		//bt add for phone, can be automate in the future
-                                                        //sysId[0], sysId[1], sysId[2], sysId[3], 
-                                                        //sysId[4], sysId[5], sysId[6], sysId[7],
-                                                        (byte) 0x01, (byte) 0x04,(byte) 0x01, (byte) 0x04,
-                                                        (byte) 0x02, (byte) 0x03,(byte) 0x01, (byte) 0x04,
-                                                        (byte) 0x00, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x00, 
-                                                        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00};
-            final byte data_DR[] = new byte[] {         (byte) 0xE7, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x12,
-                                                        (byte) 0x00, (byte) 0x10,
-                                                        (byte) invoke[0], (byte) invoke[1],
-                                                        (byte) 0x02, (byte) 0x01,
-                                                        (byte) 0x00, (byte) 0x0A,
-                                                        (byte) 0x00, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
-                                                        (byte) 0x0D, (byte) 0x1F,
-                                                        (byte) 0x00, (byte) 0x00 };
-
-            final byte get_MDS[] = new byte[] {         (byte) 0xE7, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x0E,
-                                                        (byte) 0x00, (byte) 0x0C,
-                                                        (byte) 0x4A, (byte) 0x05,//#####
-                                                        (byte) 0x01, (byte) 0x03,
-                                                        (byte) 0x00, (byte) 0x06,
-                                                        (byte) 0x00, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x00 };
-
-            final byte data_RR[] = new byte[] {         (byte) 0xE5, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x02,
-                                                        (byte) 0x00, (byte) 0x00 };
-
-            final byte data_RRQ[] = new byte[] {        (byte) 0xE4, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x02,
-                                                        (byte) 0x00, (byte) 0x00 };
-
-            final byte data_ABORT[] = new byte[] {      (byte) 0xE6, (byte) 0x00,
-                                                        (byte) 0x00, (byte) 0x02,
-                                                        (byte) 0x00, (byte) 0x00 };
-            try {
-                Log.i(TAG, String.valueOf(count));
-                if (count == 1)
-                {
-                    fos.write(data_AR);
-                    Log.i(TAG, "Association Responsed!");
-                }  
-                else if (count == 2)
-                {
-                    fos.write(get_MDS);
-                    Log.i(TAG, "Get MDS object attributes!");
-//                  fos.write(data_ABORT);
-                }
-                else if (count == 3) 
-                {
-                    fos.write(data_DR);
-                    Log.i(TAG, "Data Responsed!");
-                }
-                else if (count == 4)
-                {
-                    fos.write(data_RR);
-                    Log.i(TAG, "Association Released!");
-                }
-            } catch(IOException ioe) {}
-        }
-    }
-    
     //utitlity method: convert system-id to byte array of 8
     void convertSystemId(byte[] systemId, String sId){
     	for(int i=0; i<8; i++){
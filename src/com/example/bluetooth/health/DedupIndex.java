@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Bounded set of recently seen measurement keys used to drop readings an agent re-sends on
+ * reconnect.  Keys are 64-bit hashes of (system-id, measurement time, values), see
+ * {@link #key(long, long, double, double, double)}.
+ *
+ * The set is an open-addressing table of primitive longs sized to twice the capacity, plus a
+ * ring that records insertion order so the oldest key is evicted once the capacity is reached.
+ * The ring is mirrored to a file with one positioned write per new key, so the index survives
+ * service restarts without rewriting the whole file.
+ *
+ * File layout: next(u32) count(u32) key(u64) * capacity.
+ *
+ * Plain Java, shared by the Android service and {@link HdpGateway}.  If the file cannot be
+ * used the index keeps working in memory, see {@link #isPersistent()}.
+ */
+final class DedupIndex {
+    private static final long EMPTY = 0;
+    private static final int HEADER_SIZE = 8;
+
+    private final int mCapacity;
+    private final long[] mTable;
+    private final int mMask;
+    private final long[] mRing;
+    private int mNext;
+    private int mCount;
+    private RandomAccessFile mFile;
+
+    /**
+     * @param file backing file, created if missing; null keeps the index in memory only.
+     */
+    DedupIndex(File file, int capacity) {
+        mCapacity = capacity;
+        int tableSize = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1) << 1;
+        mTable = new long[tableSize];
+        mMask = tableSize - 1;
+        mRing = new long[capacity];
+        mFile = file == null ? null : load(file);
+    }
+
+    /** Hashes the identifying fields of a reading into a non-zero key. */
+    static long key(long systemId, long time, double systolic, double diastolic,
+            double pulse) {
+        long h = mix(systemId);
+        h = mix(h ^ time);
+        h = mix(h ^ Double.doubleToLongBits(systolic));
+        h = mix(h ^ Double.doubleToLongBits(diastolic));
+        h = mix(h ^ Double.doubleToLongBits(pulse));
+        return h == EMPTY ? 1 : h;
+    }
+
+    // 64-bit finalizer from MurmurHash3.
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Records the key and returns true if it was not seen before.  Call it once the reading is
+     * stored; until then {@link #contains(long)} lets a re-sent copy through.
+     */
+    synchronized boolean add(long key) {
+        if (contains(key)) return false;
+        if (mCount == mCapacity) {
+            remove(mRing[mNext]);
+            mCount--;
+        }
+        insert(key);
+        int slot = mNext;
+        mRing[slot] = key;
+        mNext = (mNext + 1) % mCapacity;
+        mCount++;
+        persist(slot, key);
+        return true;
+    }
+
+    synchronized boolean contains(long key) {
+        int i = index(key);
+        while (mTable[i] != EMPTY) {
+            if (mTable[i] == key) return true;
+            i = (i + 1) & mMask;
+        }
+        return false;
+    }
+
+    synchronized boolean isPersistent() {
+        return mFile != null;
+    }
+
+    synchronized void close() {
+        if (mFile == null) return;
+        try {
+            mFile.close();
+        } catch (IOException e) { /* Do nothing. */ }
+    }
+
+    private int index(long key) {
+        return (int) (key ^ (key >>> 32)) & mMask;
+    }
+
+    private void insert(long key) {
+        int i = index(key);
+        while (mTable[i] != EMPTY) {
+            i = (i + 1) & mMask;
+        }
+        mTable[i] = key;
+    }
+
+    // Linear probing removal: re-inserts the rest of the cluster so lookups stay correct.
+    private void remove(long key) {
+        int i = index(key);
+        while (mTable[i] != key) {
+            if (mTable[i] == EMPTY) return;
+            i = (i + 1) & mMask;
+        }
+        mTable[i] = EMPTY;
+        i = (i + 1) & mMask;
+        while (mTable[i] != EMPTY) {
+            long k = mTable[i];
+            mTable[i] = EMPTY;
+            insert(k);
+            i = (i + 1) & mMask;
+        }
+    }
+
+    private RandomAccessFile load(File file) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            if (raf.length() == HEADER_SIZE + 8L * mCapacity) {
+                int next = raf.readInt();
+                int count = raf.readInt();
+                if (next >= 0 && next < mCapacity && count >= 0 && count <= mCapacity) {
+                    for (int i = 0; i < mCapacity; i++) {
+                        mRing[i] = raf.readLong();
+                    }
+                    // Oldest entry first, so eviction order is preserved.
+                    for (int i = 0; i < count; i++) {
+                        long key = mRing[(next - count + i + mCapacity) % mCapacity];
+                        if (key != EMPTY && !contains(key)) insert(key);
+                    }
+                    mNext = next;
+                    mCount = count;
+                    return raf;
+                }
+            }
+            // Missing, resized or corrupt: start over.
+            raf.setLength(0);
+            raf.setLength(HEADER_SIZE + 8L * mCapacity);
+            return raf;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void persist(int slot, long key) {
+        if (mFile == null) return;
+        try {
+            mFile.seek(HEADER_SIZE + 8L * slot);
+            mFile.writeLong(key);
+            mFile.seek(0);
+            mFile.writeInt(mNext);
+            mFile.writeInt(mCount);
+        } catch (IOException e) {
+            // Keep deduplicating in memory; the file is stale from here on.
+            close();
+            mFile = null;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+/**
+ * Identity and capabilities of an agent, decoded from the attribute list of its MDS object in
+ * the Get-MDS response.  Attributes the agent did not report are null, 0 or empty.
+ */
+public final class DeviceInfo {
+    // Mds-Time-Info capability bits.
+    public static final int TIME_CAPAB_REAL_TIME_CLOCK = 0x8000;
+    public static final int TIME_CAPAB_SET_CLOCK = 0x4000;
+    public static final int TIME_CAPAB_RELATIVE_TIME = 0x2000;
+
+    // ProdSpecEntry spec-type values.
+    private static final int SPEC_SERIAL_NUMBER = 1;
+    private static final int SPEC_FW_REVISION = 5;
+
+    public final long systemId;
+    public final int devConfigId;
+    public final String manufacturer;
+    public final String model;
+    public final String serial;
+    public final String firmware;
+    /** Capability bits of Mds-Time-Info, see TIME_CAPAB_*. */
+    public final int timeCapabilities;
+    /** Device specializations from System-Type-Spec-List, MDC_DEV_SPEC_PROFILE_* codes. */
+    public final int[] specializations;
+    /** When the attributes were read, epoch ms. */
+    public final long time;
+
+    public DeviceInfo(long systemId, int devConfigId, String manufacturer, String model,
+            String serial, String firmware, int timeCapabilities, int[] specializations,
+            long time) {
+        this.systemId = systemId;
+        this.devConfigId = devConfigId;
+        this.manufacturer = manufacturer;
+        this.model = model;
+        this.serial = serial;
+        this.firmware = firmware;
+        this.timeCapabilities = timeCapabilities;
+        this.specializations = specializations;
+        this.time = time;
+    }
+
+    /**
+     * Decodes the attribute list of a Get-MDS response.  The system-id and configuration come
+     * from the association request.
+     */
+    static DeviceInfo parse(long systemId, int devConfigId, byte[] data, int length, long now) {
+        String manufacturer = null;
+        String model = null;
+        int offset = ManagerSession.findAttribute(data, length, Nomenclature.MDC_ATTR_ID_MODEL,
+                4);
+        if (offset >= 0) {
+            int end = offset + attributeLength(data, offset);
+            manufacturer = readString(data, offset, end);
+            model = readString(data, offset + 2 + ManagerSession.readShort(data, offset), end);
+        }
+
+        String serial = null;
+        String firmware = null;
+        offset = ManagerSession.findAttribute(data, length, Nomenclature.MDC_ATTR_ID_PROD_SPECN,
+                4);
+        if (offset >= 0) {
+            // ProductionSpec: count, length, then spec-type, component-id and prod-spec.
+            int end = offset + attributeLength(data, offset);
+            int count = ManagerSession.readShort(data, offset);
+            offset += 4;
+            for (int i = 0; i < count && offset + 6 <= end; i++) {
+                int type = ManagerSession.readShort(data, offset);
+                String value = readString(data, offset + 4, end);
+                if (type == SPEC_SERIAL_NUMBER) {
+                    serial = value;
+                } else if (type == SPEC_FW_REVISION) {
+                    firmware = value;
+                }
+                offset += 6 + ManagerSession.readShort(data, offset + 4);
+            }
+        }
+
+        int timeCapabilities = 0;
+        offset = ManagerSession.findAttribute(data, length,
+                Nomenclature.MDC_ATTR_MDS_TIME_INFO, 2);
+        if (offset >= 0) timeCapabilities = ManagerSession.readShort(data, offset);
+
+        int[] specializations = new int[0];
+        offset = ManagerSession.findAttribute(data, length,
+                Nomenclature.MDC_ATTR_SYS_TYPE_SPEC_LIST, 4);
+        if (offset >= 0) {
+            // TypeVerList: count, length, then type and version.
+            int end = offset + attributeLength(data, offset);
+            int count = Math.min(ManagerSession.readShort(data, offset), (end - offset - 4) / 4);
+            specializations = new int[Math.max(0, count)];
+            for (int i = 0; i < specializations.length; i++) {
+                specializations[i] = ManagerSession.readShort(data, offset + 4 + i * 4);
+            }
+        }
+        return new DeviceInfo(systemId, devConfigId, manufacturer, model, serial, firmware,
+                timeCapabilities, specializations, now);
+    }
+
+    public boolean canSetClock() {
+        return (timeCapabilities & TIME_CAPAB_SET_CLOCK) != 0;
+    }
+
+    // Length of the attribute value at offset, as given in front of it.
+    private static int attributeLength(byte[] data, int offset) {
+        return ManagerSession.readShort(data, offset - 2);
+    }
+
+    // Reads a length-prefixed octet string of printable text, up to the first NUL; null if it
+    // runs past end.
+    private static String readString(byte[] data, int offset, int end) {
+        if (offset + 2 > end) return null;
+        int n = ManagerSession.readShort(data, offset);
+        offset += 2;
+        if (offset + n > end) return null;
+        StringBuilder s = new StringBuilder(n);
+        for (int i = offset; i < offset + n && data[i] != 0; i++) {
+            s.append((char) (data[i] & 0xFF));
+        }
+        return s.toString().trim();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016X %s %s serial %s fw %s", systemId, manufacturer, model,
+                serial, firmware);
+    }
+}
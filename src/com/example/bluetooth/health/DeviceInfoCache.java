@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link DeviceInfo} of known agents by system-id, so an agent's MDS attributes are read once
+ * rather than after every association.  An entry is dropped when its agent associates with a
+ * different configuration, once it is older than the maximum age, or by
+ * {@link #invalidate(long)}.  The info is also kept by the transport address it was last seen
+ * on, for consumers such as uploads that only know readings by their device address.
+ */
+public final class DeviceInfoCache {
+    public static final long DEFAULT_MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+    private static final int MAX_ENTRIES = 256;
+
+    private static DeviceInfoCache sInstance;
+
+    private final long mMaxAgeMs;
+    private final Map<Long, DeviceInfo> mBySystemId = new Lru<Long, DeviceInfo>();
+    private final Map<String, DeviceInfo> mByAddress = new Lru<String, DeviceInfo>();
+
+    public static synchronized DeviceInfoCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new DeviceInfoCache(DEFAULT_MAX_AGE_MS);
+        }
+        return sInstance;
+    }
+
+    public DeviceInfoCache(long maxAgeMs) {
+        mMaxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * Info of an agent associating with <code>devConfigId</code> from <code>address</code>, or
+     * null if it has to be read again.
+     */
+    public synchronized DeviceInfo get(long systemId, int devConfigId, String address) {
+        DeviceInfo info = mBySystemId.get(systemId);
+        if (info == null) return null;
+        if (info.devConfigId != devConfigId
+                || System.currentTimeMillis() - info.time > mMaxAgeMs) {
+            invalidate(systemId);
+            return null;
+        }
+        mByAddress.put(address, info);
+        return info;
+    }
+
+    /** Info of the agent last seen on <code>address</code>, or null. */
+    public synchronized DeviceInfo forAddress(String address) {
+        return mByAddress.get(address);
+    }
+
+    public synchronized void put(String address, DeviceInfo info) {
+        mBySystemId.put(info.systemId, info);
+        mByAddress.put(address, info);
+    }
+
+    /** Forgets an agent; its next session reads the attributes again. */
+    public synchronized void invalidate(long systemId) {
+        mBySystemId.remove(systemId);
+        // Addresses keep the identity for readings already on their way.
+    }
+
+    public synchronized void clear() {
+        mBySystemId.clear();
+        mByAddress.clear();
+    }
+
+    private static final class Lru<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        Lru() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+/**
+ * One thread driving any number of timeouts, after Varghese and Lauck's hashed timing wheel.
+ * Adding and cancelling a timeout are O(1).  The thread sleeps through empty buckets and while
+ * there are no timeouts at all, so long idle timeouts cost one wakeup per turn of the wheel
+ * rather than one per tick.  Timeouts fire up to one tick late.
+ *
+ * Tasks run on the timer thread and must be short: hosts use them to hand the real work to
+ * their own thread.
+ */
+public final class HashedWheelTimer implements Runnable {
+    /** A scheduled task; see {@link HashedWheelTimer#newTimeout(Runnable, long)}. */
+    public static final class Timeout {
+        private final HashedWheelTimer mTimer;
+        private final Runnable mTask;
+        // Full turns of the wheel left before the timeout is due.
+        private long mRounds;
+        // Bucket links; mBucket is -1 once the timeout expired or was cancelled.
+        private int mBucket = -1;
+        private Timeout mPrev;
+        private Timeout mNext;
+
+        Timeout(HashedWheelTimer timer, Runnable task) {
+            mTimer = timer;
+            mTask = task;
+        }
+
+        /** Returns false if the timeout already fired or was cancelled. */
+        public boolean cancel() {
+            synchronized (mTimer) {
+                if (mBucket < 0) return false;
+                mTimer.unlink(this);
+                return true;
+            }
+        }
+    }
+
+    private final long mTickNanos;
+    private final Timeout[] mWheel;
+    private final int mMask;
+    private final long mStart = System.nanoTime();
+    private final Thread mThread;
+    // Next tick to process, counted from mStart.  Guarded by this.
+    private long mTick;
+    private int mSize;
+    private boolean mRunning = true;
+
+    /**
+     * @param tickMs resolution of the timer.
+     * @param ticksPerWheel number of buckets, rounded up to a power of two; timeouts longer
+     *                      than tickMs * ticksPerWheel wait for more than one turn.
+     */
+    public HashedWheelTimer(String name, long tickMs, int ticksPerWheel) {
+        mTickNanos = tickMs * 1000000L;
+        int buckets = Integer.highestOneBit(Math.max(1, ticksPerWheel - 1)) << 1;
+        mWheel = new Timeout[buckets];
+        mMask = buckets - 1;
+        mThread = new Thread(this, name);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /** Runs <code>task</code> on the timer thread once <code>delayMs</code> have passed. */
+    public synchronized Timeout newTimeout(Runnable task, long delayMs) {
+        Timeout timeout = new Timeout(this, task);
+        if (!mRunning) return timeout;
+        long now = System.nanoTime() - mStart;
+        if (mSize == 0) {
+            // The thread was idle and did not advance mTick; catch up before placing.
+            mTick = Math.max(mTick, now / mTickNanos);
+        }
+        // The thread may be sleeping towards a later bucket.
+        notify();
+        long deadline = now + Math.max(0, delayMs) * 1000000L;
+        long tick = Math.max(mTick, (deadline + mTickNanos - 1) / mTickNanos);
+        timeout.mRounds = (tick - mTick) / mWheel.length;
+        link(timeout, (int) (tick & mMask));
+        return timeout;
+    }
+
+    /** Stops the timer thread; pending timeouts never fire. */
+    public synchronized void stop() {
+        mRunning = false;
+        notify();
+    }
+
+    public void run() {
+        Timeout expired = null;
+        while (true) {
+            synchronized (this) {
+                while (mRunning && mSize == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) { /* Re-check. */ }
+                }
+                if (!mRunning) return;
+                long wait = mStart + (mTick + emptyTicks()) * mTickNanos - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        wait(wait / 1000000L, (int) (wait % 1000000L));
+                    } catch (InterruptedException e) { /* Re-check. */ }
+                    continue;
+                }
+                int bucket = (int) (mTick++ & mMask);
+                Timeout t = mWheel[bucket];
+                while (t != null) {
+                    Timeout next = t.mNext;
+                    if (t.mRounds-- == 0) {
+                        unlink(t);
+                        // Reuse the links for the list of tasks to run.
+                        t.mNext = expired;
+                        expired = t;
+                    }
+                    t = next;
+                }
+            }
+            // Outside the lock so tasks may add or cancel timeouts.
+            while (expired != null) {
+                Timeout t = expired;
+                expired = t.mNext;
+                t.mNext = null;
+                try {
+                    t.mTask.run();
+                } catch (RuntimeException e) {
+                    // A failing task must not stop the timer for everybody else.
+                }
+            }
+        }
+    }
+
+    // Number of empty buckets from mTick on; there is at least one timeout.
+    private int emptyTicks() {
+        int n = 0;
+        while (mWheel[(int) ((mTick + n) & mMask)] == null) {
+            n++;
+        }
+        return n;
+    }
+
+    private void link(Timeout t, int bucket) {
+        Timeout head = mWheel[bucket];
+        t.mBucket = bucket;
+        t.mPrev = null;
+        t.mNext = head;
+        if (head != null) head.mPrev = t;
+        mWheel[bucket] = t;
+        mSize++;
+    }
+
+    private void unlink(Timeout t) {
+        if (t.mPrev != null) {
+            t.mPrev.mNext = t.mNext;
+        } else {
+            mWheel[t.mBucket] = t.mNext;
+        }
+        if (t.mNext != null) t.mNext.mPrev = t.mPrev;
+        t.mBucket = -1;
+        t.mPrev = null;
+        t.mNext = null;
+        mSize--;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+/**
+ * Immutable event published by {@link BluetoothHDPService} to its subscribers.  The same
+ * instance is queued for every subscriber; it is never copied.
+ */
+public final class HdpEvent {
+    public static final int TYPE_STATUS = 0;
+    public static final int TYPE_MEASUREMENT = 1;
+
+    public final int type;
+    // For status events: one of the BluetoothHDPService.STATUS_* codes and its value.
+    public final int what;
+    public final int value;
+    // For measurement events.
+    public final Measurement measurement;
+
+    private HdpEvent(int type, int what, int value, Measurement measurement) {
+        this.type = type;
+        this.what = what;
+        this.value = value;
+        this.measurement = measurement;
+    }
+
+    public static HdpEvent status(int what, int value) {
+        return new HdpEvent(TYPE_STATUS, what, value, null);
+    }
+
+    public static HdpEvent measurement(Measurement m) {
+        return new HdpEvent(TYPE_MEASUREMENT, BluetoothHDPService.SHOW_RESULT, 0, m);
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless IEEE 11073-20601 manager for plain JVM hosts.  Agents connect over TCP and exchange
+ * APDUs as a byte stream; each connection is served by the same {@link ManagerSession} used by
+ * {@link BluetoothHDPService} on the tablet.
+ *
+ * One selector thread does all socket I/O and APDU framing.  Decoded APDUs are handed to a
+ * small shared worker pool; work for a single connection is serialized so each session still
+ * sees one APDU at a time, while different sessions proceed in parallel.  Thread count is
+ * independent of the number of agents.
+ *
+ * Usage: <code>java com.example.bluetooth.health.HdpGateway [port] [dedup-file]</code>.
+ * Readings are written to standard output, one line each.
+ */
+public final class HdpGateway {
+    public static final int DEFAULT_PORT = 20601;
+
+    // An APDU is a 2 byte choice, a 2 byte length and up to 64k of payload.
+    private static final int APDU_HEADER = 4;
+    private static final int MAX_APDU = APDU_HEADER + 0xFFFF;
+    private static final int DEDUP_CAPACITY = 65536;
+    private static final long TIMER_TICK_MS = 100;
+    private static final int TIMER_TICKS_PER_WHEEL = 512;
+
+    private final ServerSocketChannel mServer;
+    private final Selector mSelector;
+    private final ExecutorService mWorkers;
+    // 20601 timeouts of all connections.
+    private final HashedWheelTimer mTimer;
+    private final SegmentDecoder mSegmentDecoder;
+    private final DedupIndex mDedup;
+    private final PrintStream mOut;
+    // Connections with queued output, picked up by the selector thread.
+    private final ConcurrentLinkedQueue<Connection> mPendingWrites =
+            new ConcurrentLinkedQueue<Connection>();
+    private volatile boolean mRunning = true;
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        DedupIndex dedup = new DedupIndex(args.length > 1 ? new File(args[1]) : null,
+                DEDUP_CAPACITY);
+        new HdpGateway(new InetSocketAddress(port), dedup, System.out).run();
+    }
+
+    // dedup may be null to deliver every reading, as in ManagerSession.
+    public HdpGateway(InetSocketAddress address, DedupIndex dedup, PrintStream out)
+            throws IOException {
+        mDedup = dedup;
+        mOut = out;
+        mSelector = Selector.open();
+        mServer = ServerSocketChannel.open();
+        mServer.configureBlocking(false);
+        mServer.socket().setReuseAddress(true);
+        mServer.socket().bind(address);
+        mServer.register(mSelector, SelectionKey.OP_ACCEPT);
+        mWorkers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        mTimer = new HashedWheelTimer("hdp-timer", TIMER_TICK_MS, TIMER_TICKS_PER_WHEEL);
+        mSegmentDecoder = new SegmentDecoder(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Serves connections on the calling thread until {@link #stop()} is called. */
+    public void run() throws IOException {
+        try {
+            while (mRunning) {
+                mSelector.select();
+                Connection c;
+                while ((c = mPendingWrites.poll()) != null) {
+                    c.enableWrite();
+                }
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.write();
+                    } catch (IOException e) {
+                        connection.closeNow();
+                    }
+                }
+            }
+        } finally {
+            for (SelectionKey key : mSelector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).closeNow();
+                }
+            }
+            mServer.close();
+            mSelector.close();
+            mWorkers.shutdown();
+            mTimer.stop();
+            mSegmentDecoder.shutdown();
+            if (mDedup != null) mDedup.close();
+        }
+    }
+
+    public void stop() {
+        mRunning = false;
+        mSelector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = mServer.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(channel);
+        connection.mKey = channel.register(mSelector, SelectionKey.OP_READ, connection);
+        connection.start();
+    }
+
+    private final ManagerSession.Listener mListener = new ManagerSession.Listener() {
+        public void onAssociated(ManagerSession session) {}
+
+        public void onMeasurement(ManagerSession session, Measurement m) {
+            MeasurementStats.Summary summary = MeasurementStats.getInstance().add(m);
+            mOut.println(String.format("%016x %s %s | %s", session.getSystemId(),
+                    session.getAddress(), m, summary));
+            // Written out; a re-sent copy is a duplicate from here on.
+            if (mDedup != null && m.dedupKey != 0) mDedup.add(m.dedupKey);
+        }
+
+        public void onDuplicate(ManagerSession session, Measurement m) {}
+
+        // The gateway forwards spot readings only.
+        public void onSample(ManagerSession session, int metric, long time, double value) {}
+
+        public void onReleased(ManagerSession session) {}
+
+        public void onAborted(ManagerSession session) {}
+
+        public void onError(ManagerSession session, IOException e) {
+            mOut.println(String.format("%016x %s error: %s", session.getSystemId(),
+                    session.getAddress(), e.getCause() != null ? e.getCause() : e));
+        }
+    };
+
+    /**
+     * One agent connection.  Socket state is owned by the selector thread; the session runs on
+     * worker threads, one task at a time, in submission order.
+     */
+    private final class Connection implements ManagerSession.Transport,
+            ManagerSession.Scheduler, Runnable {
+        private final SocketChannel mChannel;
+        private final ManagerSession mSession;
+        private final ByteBuffer mIn = ByteBuffer.allocate(MAX_APDU);
+        private final ArrayDeque<ByteBuffer> mOutQueue = new ArrayDeque<ByteBuffer>();
+        private SelectionKey mKey;
+        // Set by close(); the selector thread closes once mOutQueue is drained.
+        private boolean mClosing;
+
+        // Serial execution of session work on the shared pool.
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+        private boolean mScheduled;
+
+        Connection(SocketChannel channel) {
+            mChannel = channel;
+            // Agents behind one NAT share the host, so the port is part of the address.  It
+            // changes with every connection; the system-id identifies an agent across them.
+            mSession = new ManagerSession(channel.socket().getInetAddress().getHostAddress()
+                    + ":" + channel.socket().getPort(), this, this, mListener, mDedup,
+                    mSegmentDecoder);
+        }
+
+        void start() {
+            submit(new Runnable() {
+                public void run() {
+                    mSession.start();
+                }
+            });
+        }
+
+        // Selector thread: reads what is available and dispatches every complete APDU.
+        void read() throws IOException {
+            if (mChannel.read(mIn) < 0) {
+                closeNow();
+                return;
+            }
+            mIn.flip();
+            while (mIn.remaining() >= APDU_HEADER) {
+                int length = APDU_HEADER + (mIn.getShort(mIn.position() + 2) & 0xFFFF);
+                if (mIn.remaining() < length) break;
+                final byte[] apdu = new byte[length];
+                mIn.get(apdu);
+                submit(new Runnable() {
+                    public void run() {
+                        try {
+                            mSession.onApdu(apdu, apdu.length);
+                        } catch (IOException e) {
+                            mListener.onError(mSession, e);
+                        }
+                    }
+                });
+            }
+            mIn.compact();
+        }
+
+        // Selector thread: flushes queued APDUs and stops write interest once drained.
+        void write() throws IOException {
+            synchronized (mOutQueue) {
+                while (!mOutQueue.isEmpty()) {
+                    ByteBuffer buffer = mOutQueue.peek();
+                    mChannel.write(buffer);
+                    if (buffer.hasRemaining()) return;
+                    mOutQueue.poll();
+                }
+                if (mClosing) {
+                    closeNow();
+                    return;
+                }
+                mKey.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void enableWrite() {
+            if (mKey.isValid()) mKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        // Any thread: closes once queued output, e.g. a final abort, reached the agent.
+        public void close() {
+            synchronized (mOutQueue) {
+                mClosing = true;
+            }
+            mPendingWrites.add(this);
+            mSelector.wakeup();
+        }
+
+        // Selector thread; the session learns about it on a worker.
+        void closeNow() {
+            if (!mKey.isValid()) return;
+            mKey.cancel();
+            try {
+                mChannel.close();
+            } catch (IOException e) { /* Do nothing. */ }
+            submit(new Runnable() {
+                public void run() {
+                    mSession.onClosed();
+                }
+            });
+        }
+
+        // Worker thread: queues the APDU for the selector thread.
+        public void send(byte[] apdu) throws IOException {
+            if (!mChannel.isOpen()) throw new IOException("Connection closed");
+            synchronized (mOutQueue) {
+                mOutQueue.add(ByteBuffer.wrap(apdu));
+            }
+            mPendingWrites.add(this);
+            mSelector.wakeup();
+        }
+
+        public HashedWheelTimer.Timeout schedule(final Runnable task, long delayMs) {
+            return mTimer.newTimeout(new Runnable() {
+                public void run() {
+                    submit(task);
+                }
+            }, delayMs);
+        }
+
+        public void post(Runnable task) {
+            submit(task);
+        }
+
+        private void submit(Runnable task) {
+            synchronized (mTasks) {
+                mTasks.add(task);
+                if (mScheduled) return;
+                mScheduled = true;
+            }
+            mWorkers.execute(this);
+        }
+
+        // Drains the task queue; at most one worker runs this per connection at a time.
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (mTasks) {
+                    task = mTasks.poll();
+                    if (task == null) {
+                        mScheduled = false;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // A session bug costs that connection only; later tasks still run.
+                    mListener.onError(mSession, new IOException("Session failed", e));
+                    mSession.abort();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.util.EntityUtils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Process-wide HTTP client used by the network {@link MeasurementSink}s.
+ *
+ * A single pooled connection manager is shared so that keep-alive connections to the hub are
+ * reused across uploads instead of paying a TCP/TLS handshake per reading.  Every response
+ * entity is fully consumed, which returns the connection to the pool, and non-2xx status codes
+ * are reported as {@link IOException}s.  Per-request latency is recorded in {@link Stats}.
+ */
+public final class HubClient {
+    private static final String TAG = "bp";
+
+    // Bounded so a dead hub cannot hold an upload thread forever.
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int SOCKET_TIMEOUT_MS = 20000;
+    private static final long POOL_TIMEOUT_MS = 5000;
+    private static final int MAX_CONNECTIONS = 4;
+    // Pooled connections idle for longer than this are closed on the next request.
+    private static final long IDLE_TIMEOUT_MS = 60000;
+
+    private static HubClient sInstance;
+
+    private final DefaultHttpClient mHttpClient;
+    private final Stats mStats = new Stats();
+
+    /**
+     * Latency and outcome counters, updated after every request.  Reads are not atomic across
+     * fields; the values are intended for logging and display only.
+     */
+    public static final class Stats {
+        public volatile long requests;
+        public volatile long failures;
+        public volatile long lastLatencyMs;
+        public volatile long maxLatencyMs;
+        public volatile long totalLatencyMs;
+        public volatile int lastStatus;
+
+        public long averageLatencyMs() {
+            long n = requests;
+            return n == 0 ? 0 : totalLatencyMs / n;
+        }
+
+        synchronized void record(long latencyMs, int status, boolean ok) {
+            requests++;
+            if (!ok) failures++;
+            lastStatus = status;
+            lastLatencyMs = latencyMs;
+            totalLatencyMs += latencyMs;
+            if (latencyMs > maxLatencyMs) maxLatencyMs = latencyMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("requests=%d failures=%d last=%dms avg=%dms max=%dms status=%d",
+                    requests, failures, lastLatencyMs, averageLatencyMs(), maxLatencyMs,
+                    lastStatus);
+        }
+    }
+
+    public static synchronized HubClient getInstance() {
+        if (sInstance == null) {
+            sInstance = new HubClient();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Closes all pooled connections.  A later {@link #getInstance()} creates a fresh client.
+     */
+    public static synchronized void shutdown() {
+        if (sInstance != null) {
+            sInstance.mHttpClient.getConnectionManager().shutdown();
+            sInstance = null;
+        }
+    }
+
+    private HubClient() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, "UTF-8");
+        HttpProtocolParams.setUseExpectContinue(params, false);
+        HttpConnectionParams.setConnectionTimeout(params, CONNECT_TIMEOUT_MS);
+        HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT_MS);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        ConnManagerParams.setTimeout(params, POOL_TIMEOUT_MS);
+        ConnManagerParams.setMaxTotalConnections(params, MAX_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS));
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        mHttpClient = new DefaultHttpClient(new ThreadSafeClientConnManager(params, registry),
+                params);
+    }
+
+    public Stats getStats() {
+        return mStats;
+    }
+
+    /**
+     * POSTs the entity to the given URL and returns the response body.
+     *
+     * @throws IOException on transport errors or a non-2xx response status.
+     */
+    public String post(String url, HttpEntity entity) throws IOException {
+        ClientConnectionManager manager = mHttpClient.getConnectionManager();
+        manager.closeExpiredConnections();
+        manager.closeIdleConnections(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        HttpPost httppost = new HttpPost(url);
+        httppost.setEntity(entity);
+        long start = SystemClock.elapsedRealtime();
+        int status = 0;
+        boolean ok = false;
+        try {
+            HttpResponse response = mHttpClient.execute(httppost);
+            status = response.getStatusLine().getStatusCode();
+            HttpEntity responseEntity = response.getEntity();
+            // Reading the entity to the end releases the connection back to the pool.
+            String body = responseEntity == null ? "" : EntityUtils.toString(responseEntity, "UTF-8");
+            if (status < 200 || status >= 300) {
+                throw new IOException("Hub returned " + status + " "
+                        + response.getStatusLine().getReasonPhrase());
+            }
+            ok = true;
+            return body;
+        } catch (IOException e) {
+            // Make sure a half-read connection is not handed back to the pool.
+            httppost.abort();
+            throw e;
+        } finally {
+            mStats.record(SystemClock.elapsedRealtime() - start, status, ok);
+            if (Log.isLoggable(TAG, Log.DEBUG))
+                Log.d(TAG, "hub " + mStats);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+/**
+ * Open-addressing hash map from int to int with linear probing.  Lookups touch two primitive
+ * arrays and never allocate or box.  Not thread-safe for writes; a map that is no longer
+ * modified may be read from any thread once safely published.
+ */
+public final class IntIntMap {
+    private static final int FREE = 0;
+
+    private int[] mKeys;
+    private int[] mValues;
+    private int mMask;
+    private int mSize;
+    // Key 0 marks free slots, so it is stored on the side.
+    private boolean mHasZero;
+    private int mZeroValue;
+
+    public IntIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        mKeys = new int[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+    }
+
+    public int size() {
+        return mSize + (mHasZero ? 1 : 0);
+    }
+
+    /** Returns the value of <code>key</code>, or <code>missing</code>. */
+    public int get(int key, int missing) {
+        if (key == FREE) return mHasZero ? mZeroValue : missing;
+        int[] keys = mKeys;
+        int i = mix(key) & mMask;
+        int k;
+        while ((k = keys[i]) != FREE) {
+            if (k == key) return mValues[i];
+            i = (i + 1) & mMask;
+        }
+        return missing;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE) return mHasZero;
+        int i = mix(key) & mMask;
+        int k;
+        while ((k = mKeys[i]) != FREE) {
+            if (k == key) return true;
+            i = (i + 1) & mMask;
+        }
+        return false;
+    }
+
+    public void put(int key, int value) {
+        if (key == FREE) {
+            mHasZero = true;
+            mZeroValue = value;
+            return;
+        }
+        int i = mix(key) & mMask;
+        int k;
+        while ((k = mKeys[i]) != FREE) {
+            if (k == key) {
+                mValues[i] = value;
+                return;
+            }
+            i = (i + 1) & mMask;
+        }
+        mKeys[i] = key;
+        mValues[i] = value;
+        // Keep the load factor at or below one half.
+        if (++mSize * 2 > mKeys.length) rehash(mKeys.length * 2);
+    }
+
+    private void rehash(int capacity) {
+        int[] keys = mKeys;
+        int[] values = mValues;
+        mKeys = new int[capacity];
+        mValues = new int[capacity];
+        mMask = capacity - 1;
+        for (int i = 0; i < keys.length; i++) {
+            int key = keys[i];
+            if (key == FREE) continue;
+            int j = mix(key) & mMask;
+            while (mKeys[j] != FREE) {
+                j = (j + 1) & mMask;
+            }
+            mKeys[j] = key;
+            mValues[j] = values[i];
+        }
+    }
+
+    // Fibonacci hashing spreads the dense, structured MDC codes over the table.
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Appends measurements to a local file, one JSON object per line.  Used for offline
+ * deployments and tests where no hub is reachable.
+ */
+public class LocalFileSink implements MeasurementSink {
+    private final File mFile;
+
+    public LocalFileSink(File file) {
+        mFile = file;
+    }
+
+    public synchronized void send(List<Measurement> batch) throws IOException {
+        if (batch.isEmpty()) return;
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile, true), "UTF-8");
+        try {
+            for (JSONObject object : RestJsonSink.toJson(batch)) {
+                writer.write(object.toString());
+                writer.write('\n');
+            }
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            writer.close();
+        }
+    }
+}
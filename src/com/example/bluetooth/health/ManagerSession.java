@@ -0,0 +1,909 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * IEEE 11073-20601 manager state for one agent connection.
+ *
+ * This class has no Android dependencies: it consumes complete APDUs through
+ * {@link #onApdu(byte[], int)} and answers through a {@link Transport}, so the same code runs
+ * behind the Bluetooth HDP service on the tablet and behind {@link HdpGateway} on a plain JVM.
+ *
+ * A session is not thread-safe.  The host must call {@link #start()},
+ * {@link #onApdu(byte[], int)}, {@link #release()}, {@link #onClosed()} and the tasks handed to
+ * its {@link Scheduler} from one thread, or otherwise serialize them.
+ *
+ * After association the MDS attributes are read with Get-MDS into a {@link DeviceInfo}, unless
+ * the {@link DeviceInfoCache} still holds them from an earlier session.
+ *
+ * If a {@link SegmentLayout} is registered for the agent's configuration, its PM-store segment
+ * is downloaded after the MDS has been read.  Segment data is acknowledged as it arrives and
+ * decoded by a {@link SegmentDecoder}.
+ *
+ * The 20601 timeouts are enforced through the Scheduler: an agent that does not associate,
+ * does not answer a confirmed request or does not finish a release in time is aborted and its
+ * transport closed.
+ */
+public final class ManagerSession {
+    /** Sends a complete APDU to the agent. */
+    public interface Transport {
+        void send(byte[] apdu) throws IOException;
+
+        /** Drops the connection; the host calls {@link #onClosed()} once it is gone. */
+        void close();
+    }
+
+    /**
+     * Runs a task on the session's thread after a delay.  Hosts back this with one
+     * {@link HashedWheelTimer} shared by all their sessions.
+     */
+    public interface Scheduler {
+        HashedWheelTimer.Timeout schedule(Runnable task, long delayMs);
+
+        /** Runs a task on the session's thread as soon as possible; callable from any thread. */
+        void post(Runnable task);
+    }
+
+    /** Session events, delivered on the session's thread. */
+    public interface Listener {
+        void onAssociated(ManagerSession session);
+
+        /**
+         * A new, non-duplicate reading was decoded and acknowledged.  Once it is stored, its
+         * {@link Measurement#dedupKey} must be added to the session's {@link DedupIndex}; a
+         * reading that is lost before then is thus accepted again when the agent re-sends it.
+         */
+        void onMeasurement(ManagerSession session, Measurement measurement);
+
+        /** A reading was acknowledged but had already been seen. */
+        void onDuplicate(ManagerSession session, Measurement measurement);
+
+        /**
+         * One sample of a streamed metric, see {@link StreamLayout}.  Called for every sample,
+         * so implementations must not allocate or block.
+         */
+        void onSample(ManagerSession session, int metric, long time, double value);
+
+        void onReleased(ManagerSession session);
+
+        /** The session was aborted, by the agent or after a timeout; see {@link #abort()}. */
+        void onAborted(ManagerSession session);
+
+        /**
+         * Sending a response failed, or the transport gave up on the session; the connection
+         * is most likely gone.
+         */
+        void onError(ManagerSession session, IOException e);
+    }
+
+    // Delay between the association response and the first request to the agent.
+    static final long GET_MDS_DELAY_MS = 100;
+
+    // IEEE 11073-20601 timeouts, see the manager state machine in Annex E.
+    static final long TO_ASSOC_MS = 10000;
+    static final long TO_CONFIG_MS = 10000;
+    static final long TO_CONFIRM_ACTION_MS = 3000;
+    static final long TO_RELEASE_MS = 3000;
+    // Longest wait in onClosed() for confirmed segment data still being decoded.
+    static final long TO_FLUSH_MS = 10000;
+
+    // What the armed timeout waits for.
+    private static final int WAIT_NONE = 0;
+    private static final int WAIT_ASSOC = 1;
+    private static final int WAIT_CONFIRM = 2;
+    private static final int WAIT_RELEASE = 3;
+    // The agent released; it should now disconnect.
+    private static final int WAIT_DISCONNECT = 4;
+    // The agent was told its configuration is unknown; it should send it.
+    private static final int WAIT_CONFIG = 5;
+
+    // mPendingAction while the Get-MDS request awaits its response.
+    private static final int PENDING_GET_MDS = -1;
+
+    // Agent clocks further off than this are corrected with Set-Time, if supported.
+    static final long SET_TIME_DRIFT_MS = 60000;
+
+    // Offsets in the fixed format blood pressure report: the systolic / diastolic / MAP
+    // BasicNuObsValueCmp, its AbsoluteTime, and the pulse rate BasicNuObsValue.
+    private static final int REPORT_PRESSURE_OFFSET = 40;
+    private static final int REPORT_TIME_OFFSET = 50;
+    private static final int REPORT_PULSE_OFFSET = 62;
+
+    // Standard blood pressure configurations reporting in mmHg and kPa.
+    static final int DEV_CONFIG_BP_MMHG = 0x02BC;
+    static final int DEV_CONFIG_BP_KPA = 0x02BD;
+    // Extended configurations are defined by the agent and sent in a configuration report.
+    static final int DEV_CONFIG_EXTENDED_MIN = 0x4000;
+    static final int DEV_CONFIG_EXTENDED_MAX = 0x7FFF;
+
+    // AssociateResult and ConfigResult values.
+    private static final int ASSOC_ACCEPTED = 0x0000;
+    private static final int ASSOC_ACCEPTED_UNKNOWN_CONFIG = 0x0003;
+    private static final int CONFIG_ACCEPTED = 0x0000;
+
+    // DATA apdu message choices handled by the manager.
+    private static final int ROIV_CMIP_EVENT_REPORT = 0x0100;
+    private static final int ROIV_CMIP_CONFIRMED_EVENT_REPORT = 0x0101;
+    private static final int RORS_CMIP_GET = 0x0203;
+    private static final int RORS_CMIP_CONFIRMED_ACTION = 0x0207;
+    private static final int ROER = 0x0300;
+    private static final int RORJ = 0x0400;
+
+    // SegmEvtStatus bits of segment data reports and their acknowledgements.
+    private static final int SEVTSTA_MANAGER_CONFIRM = 0x0080;
+    private static final int SEVTSTA_MANAGER_ABORT = 0x0008;
+    // Offset of the entries in a segment data report, after its SegmDataEventDescr.
+    private static final int SEGMENT_ENTRIES_OFFSET = 36;
+
+    static final byte DATA_AR[] = new byte[] {  (byte) 0xE3, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x2C, 
+                                                (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x50, (byte) 0x79,
+                                                (byte) 0x00, (byte) 0x26,
+                                                (byte) 0x80, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x80, (byte) 0x00,
+                                                (byte) 0x80, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x80, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x08,  		//bt add for phone, can be automate in the future
+                                                //sysId[0], sysId[1], sysId[2], sysId[3], 
+                                                //sysId[4], sysId[5], sysId[6], sysId[7],
+                                                (byte) 0x01, (byte) 0x04,(byte) 0x01, (byte) 0x04,
+                                                (byte) 0x02, (byte) 0x03,(byte) 0x01, (byte) 0x04,
+                                                (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x00, 
+                                                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00};
+
+    // Association response with the given AssociateResult.
+    static byte[] associationResponse(int result) {
+        byte[] apdu = DATA_AR.clone();
+        apdu[4] = (byte) (result >> 8);
+        apdu[5] = (byte) result;
+        return apdu;
+    }
+
+    // Response to a configuration report with the given ConfigResult.
+    static byte[] configResponse(byte invoke0, byte invoke1, int reportId, int result) {
+        return new byte[] {                     (byte) 0xE7, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x16,
+                                                (byte) 0x00, (byte) 0x14,
+                                                invoke0, invoke1,
+                                                (byte) 0x02, (byte) 0x01,
+                                                (byte) 0x00, (byte) 0x0E,
+                                                (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x0D, (byte) 0x1C, //MDC_NOTI_CONFIG
+                                                (byte) 0x00, (byte) 0x04,
+                                                (byte) (reportId >> 8), (byte) reportId,
+                                                (byte) (result >> 8), (byte) result };
+    }
+
+    // Confirmed Get-Segment-Info action on a PM-store for all its segments.
+    static byte[] segmentInfo(int invokeId, int storeHandle) {
+        return new byte[] {                     (byte) 0xE7, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x14,
+                                                (byte) 0x00, (byte) 0x12,
+                                                (byte) (invokeId >> 8), (byte) invokeId,
+                                                (byte) 0x01, (byte) 0x07,
+                                                (byte) 0x00, (byte) 0x0C,
+                                                (byte) (storeHandle >> 8), (byte) storeHandle,
+                                                (byte) 0x0C, (byte) 0x0D, //MDC_ACT_SEG_GET_INFO
+                                                (byte) 0x00, (byte) 0x06,
+                                                (byte) 0x00, (byte) 0x01, //all-segments
+                                                (byte) 0x00, (byte) 0x02,
+                                                (byte) 0x00, (byte) 0x00 };
+    }
+
+    // Get of all attributes of the MDS object.
+    static byte[] getMds(int invokeId) {
+        return new byte[] {                     (byte) 0xE7, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x0E,
+                                                (byte) 0x00, (byte) 0x0C,
+                                                (byte) (invokeId >> 8), (byte) invokeId,
+                                                (byte) 0x01, (byte) 0x03,
+                                                (byte) 0x00, (byte) 0x06,
+                                                (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x00 };
+    }
+
+    static final byte DATA_RR[] = new byte[] {  (byte) 0xE5, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x02,
+                                                (byte) 0x00, (byte) 0x00 };
+
+    static final byte DATA_RRQ[] = new byte[] { (byte) 0xE4, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x02,
+                                                (byte) 0x00, (byte) 0x00 };
+
+    static final byte DATA_ABORT[] = new byte[] { (byte) 0xE6, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x02,
+                                                (byte) 0x00, (byte) 0x00 };
+
+    // Confirmed Set-Time action on the MDS object; the time is filled in at offset 18.
+    static byte[] setTime(int invokeId, long millis, TimeZone zone) {
+        byte[] apdu = new byte[] {              (byte) 0xE7, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x1A,
+                                                (byte) 0x00, (byte) 0x18,
+                                                (byte) (invokeId >> 8), (byte) invokeId,
+                                                (byte) 0x01, (byte) 0x07,
+                                                (byte) 0x00, (byte) 0x12,
+                                                (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x0C, (byte) 0x17, //MDC_ACT_SET_TIME
+                                                (byte) 0x00, (byte) 0x0C,
+                                                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                                                //accuracy: FLOAT-Type, 1 second
+                                                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01 };
+        TimeCodec.writeAbsoluteTime(millis, zone, apdu, 18);
+        return apdu;
+    }
+
+    // Confirmed Trig-Segment-Data-Xfer action on a PM-store for one segment.
+    static byte[] segmentTransfer(int invokeId, int storeHandle, int segment) {
+        return new byte[] {                     (byte) 0xE7, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x10,
+                                                (byte) 0x00, (byte) 0x0E,
+                                                (byte) (invokeId >> 8), (byte) invokeId,
+                                                (byte) 0x01, (byte) 0x07,
+                                                (byte) 0x00, (byte) 0x08,
+                                                (byte) (storeHandle >> 8), (byte) storeHandle,
+                                                (byte) 0x0C, (byte) 0x1C, //MDC_ACT_SEG_TRIG_XFER
+                                                (byte) 0x00, (byte) 0x02,
+                                                (byte) (segment >> 8), (byte) segment };
+    }
+
+    // Response to a segment data report: echoes its SegmDataEventDescr with the manager's
+    // status bits added.
+    static byte[] segmentDataResponse(byte[] report, int managerStatus) {
+        byte[] apdu = new byte[] {              (byte) 0xE7, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x1E,
+                                                (byte) 0x00, (byte) 0x1C,
+                                                report[6], report[7],
+                                                (byte) 0x02, (byte) 0x01,
+                                                (byte) 0x00, (byte) 0x16,
+                                                report[12], report[13],
+                                                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x0D, (byte) 0x21, //MDC_NOTI_SEGMENT_DATA
+                                                (byte) 0x00, (byte) 0x0C,
+                                                0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 };
+        System.arraycopy(report, 22, apdu, 22, 12);
+        apdu[33] |= managerStatus;
+        return apdu;
+    }
+
+    // Confirmed event report response to the report with the given invoke id and event type.
+    static byte[] dataResponse(byte invoke0, byte invoke1, int eventType) {
+        return new byte[] {                     (byte) 0xE7, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x12,
+                                                (byte) 0x00, (byte) 0x10,
+                                                invoke0, invoke1,
+                                                (byte) 0x02, (byte) 0x01,
+                                                (byte) 0x00, (byte) 0x0A,
+                                                (byte) 0x00, (byte) 0x00,
+                                                (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+                                                (byte) (eventType >> 8), (byte) eventType,
+                                                (byte) 0x00, (byte) 0x00 };
+    }
+
+    private final String mAddress;
+    private final Transport mTransport;
+    private final Scheduler mScheduler;
+    private final Listener mListener;
+    private final DedupIndex mDedup;
+    private final SegmentDecoder mDecoder;
+    // Zone in which agent AbsoluteTime values are interpreted.
+    private final TimeZone mZone = TimeZone.getDefault();
+    private int mNextInvokeId = 0x4A05;
+
+    // System-id and dev-config-id of the agent from its association request.
+    private long mSystemId;
+    private int mDevConfigId;
+    // MDS attributes of the agent, cached from an earlier session or read with Get-MDS.
+    private DeviceInfo mInfo;
+    // Layout of a streaming configuration, null for spot readings.
+    private StreamLayout mLayout;
+    // Time after the last sample of each sample array channel, in epoch micros.
+    private long[] mNextSampleMicros;
+    // PM-store of the configuration, null if there is none to download.  mStoreHandle is set
+    // from the configuration report while the layout is still to be read, 0 otherwise.
+    private SegmentLayout mSegmentLayout;
+    private int mStoreHandle;
+    private SegmentDecoder.Transfer mTransfer;
+    // Confirmed action awaiting its response, PENDING_GET_MDS for Get-MDS, 0 if none.
+    private int mPendingAction;
+    // Scratch for the compound pressure value; sessions are single-threaded.
+    private final double[] mPressures = new double[3];
+    private boolean mAssociated;
+    private boolean mClosed;
+
+    // The one outstanding 20601 timeout.  mTimeoutSeq tells a stale expiry, already on its way
+    // to the session thread when the timeout was cancelled, from the current one.
+    private int mWaiting = WAIT_NONE;
+    private HashedWheelTimer.Timeout mTimeout;
+    private int mTimeoutSeq;
+
+    private final Runnable mGetMds = new Runnable() {
+        public void run() {
+            if (mClosed) return;
+            try {
+                if (mInfo != null) {
+                    // Known agent: carry on as after its Get-MDS response.  Without its
+                    // current time the drift is unknown, so a settable clock is just set.
+                    if (mInfo.canSetClock()) {
+                        sendSetTime();
+                    } else {
+                        requestSegments();
+                    }
+                    return;
+                }
+                mTransport.send(getMds(mNextInvokeId++ & 0xFFFF));
+                mPendingAction = PENDING_GET_MDS;
+                arm(WAIT_CONFIRM, TO_CONFIRM_ACTION_MS);
+            } catch (IOException e) {
+                mListener.onError(ManagerSession.this, e);
+            }
+        }
+    };
+
+    // Readings of the segment transfer, in order, on the session's thread.  They were
+    // confirmed to the agent already, so they are delivered even once the session is closing.
+    private final SegmentDecoder.Sink mSegmentSink = new SegmentDecoder.Sink() {
+        public void onReadings(Measurement[] readings, int count) {
+            for (int i = 0; i < count; i++) {
+                deliver(readings[i]);
+            }
+        }
+    };
+
+    /**
+     * @param address transport address of the agent, e.g. its Bluetooth or socket address.
+     * @param dedup index shared by all sessions of the manager, or null to disable
+     *              duplicate filtering.
+     * @param decoder pool shared by all sessions for PM-store downloads, or null to decode
+     *                segment data on the session's thread.
+     */
+    public ManagerSession(String address, Transport transport, Scheduler scheduler,
+            Listener listener, DedupIndex dedup, SegmentDecoder decoder) {
+        mAddress = address;
+        mTransport = transport;
+        mScheduler = scheduler;
+        mListener = listener;
+        mDedup = dedup;
+        mDecoder = decoder;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public long getSystemId() {
+        return mSystemId;
+    }
+
+    /** MDS attributes of the agent, or null until they are known. */
+    public DeviceInfo getDeviceInfo() {
+        return mInfo;
+    }
+
+    /** The transport is up; the agent now has TO_assoc to send its association request. */
+    public void start() {
+        arm(WAIT_ASSOC, TO_ASSOC_MS);
+    }
+
+    /**
+     * Asks the agent to release the association; it is aborted if it does not answer.  A
+     * session that is not associated is just closed.
+     */
+    public void release() throws IOException {
+        if (mClosed) return;
+        if (!mAssociated) {
+            disarm();
+            mClosed = true;
+            mTransport.close();
+            return;
+        }
+        mAssociated = false;
+        mTransport.send(DATA_RRQ);
+        arm(WAIT_RELEASE, TO_RELEASE_MS);
+    }
+
+    /** Sends an abort and drops the connection. */
+    public void abort() {
+        if (mClosed) return;
+        disarm();
+        try {
+            mTransport.send(DATA_ABORT);
+        } catch (IOException e) { /* Closing anyway. */ }
+        mClosed = true;
+        mListener.onAborted(this);
+        mTransport.close();
+    }
+
+    /**
+     * Handles one complete APDU from the agent.
+     *
+     * @throws IOException if the response could not be sent.
+     */
+    public void onApdu(byte[] data, int length) throws IOException {
+        if (mClosed || length == 0 || data[0] == (byte) 0x00) return;
+        if (data[0] == (byte) 0xE2) {
+            if (length >= 46) {
+                mSystemId = readLong(data, 36);
+                mDevConfigId = (data[44] & 0xFF) << 8 | (data[45] & 0xFF);
+                mLayout = StreamLayout.forConfig(mDevConfigId);
+                if (mLayout != null) mNextSampleMicros = new long[mLayout.size()];
+                mSegmentLayout = SegmentLayout.forAgent(mSystemId, mDevConfigId);
+                mInfo = DeviceInfoCache.getInstance().get(mSystemId, mDevConfigId, mAddress);
+            }
+            disarm();
+            mAssociated = true;
+            // An extended configuration we have not learned yet is sent by the agent next.
+            boolean unknown = mDevConfigId >= DEV_CONFIG_EXTENDED_MIN
+                    && mDevConfigId <= DEV_CONFIG_EXTENDED_MAX
+                    && mSegmentLayout == null && mLayout == null;
+            mTransport.send(associationResponse(
+                    unknown ? ASSOC_ACCEPTED_UNKNOWN_CONFIG : ASSOC_ACCEPTED));
+            mListener.onAssociated(this);
+            if (unknown) {
+                arm(WAIT_CONFIG, TO_CONFIG_MS);
+            } else {
+                mScheduler.schedule(mGetMds, GET_MDS_DELAY_MS);
+            }
+        } else if (data[0] == (byte) 0xE7 && length >= 12) {
+            int choice = readShort(data, 8);
+            // Refusals are shorter than the other data APDUs; they end at their error code.
+            if (length < 18 && choice != ROER && choice != RORJ) return;
+            switch (choice) {
+                case ROIV_CMIP_EVENT_REPORT:
+                    onEventReport(data, length, false);
+                    break;
+                case ROIV_CMIP_CONFIRMED_EVENT_REPORT:
+                    onEventReport(data, length, true);
+                    break;
+                case RORS_CMIP_GET:
+                    // The response to the Get-MDS request.
+                    disarm();
+                    mPendingAction = 0;
+                    if (!onMdsAttributes(data, length)) requestSegments();
+                    break;
+                case RORS_CMIP_CONFIRMED_ACTION:
+                    disarm();
+                    onActionResponse(data, length);
+                    break;
+                case ROER:
+                case RORJ:
+                    // A request was refused; carry on with the next step.
+                    disarm();
+                    int action = mPendingAction;
+                    mPendingAction = 0;
+                    switch (action) {
+                        case PENDING_GET_MDS:
+                            // The clock stays as it is; the download does not depend on it.
+                            requestSegments();
+                            break;
+                        case Nomenclature.MDC_ACT_SET_TIME:
+                            // The cached capabilities may be out of date; read them next time.
+                            DeviceInfoCache.getInstance().invalidate(mSystemId);
+                            requestSegments();
+                            break;
+                        case Nomenclature.MDC_ACT_SEG_GET_INFO:
+                        case Nomenclature.MDC_ACT_SEG_TRIG_XFER:
+                            // The agent keeps its store to itself; live readings still count.
+                            endDownload();
+                            break;
+                    }
+                    break;
+            }
+        } else if (data[0] == (byte) 0xE4) {
+            mAssociated = false;
+            mTransport.send(DATA_RR);
+            mListener.onReleased(this);
+            arm(WAIT_DISCONNECT, TO_RELEASE_MS);
+        } else if (data[0] == (byte) 0xE5) {
+            // Our release request was answered.
+            disarm();
+            mListener.onReleased(this);
+            mTransport.close();
+        } else if (data[0] == (byte) 0xE6) {
+            disarm();
+            mClosed = true;
+            mListener.onAborted(this);
+            mTransport.close();
+        }
+    }
+
+    /**
+     * The connection is gone; pending scheduled work becomes a no-op.  Segment data still being
+     * decoded is delivered first, so call this before the session's thread goes away.
+     */
+    public void onClosed() {
+        mClosed = true;
+        disarm();
+        if (mTransfer != null) {
+            mTransfer.flush(TO_FLUSH_MS);
+            mTransfer.cancel();
+            mTransfer = null;
+        }
+    }
+
+    private void arm(int waiting, long timeoutMs) {
+        disarm();
+        final int seq = mTimeoutSeq;
+        mWaiting = waiting;
+        mTimeout = mScheduler.schedule(new Runnable() {
+            public void run() {
+                if (seq == mTimeoutSeq && !mClosed) onTimeout();
+            }
+        }, timeoutMs);
+    }
+
+    private void disarm() {
+        mTimeoutSeq++;
+        mWaiting = WAIT_NONE;
+        if (mTimeout != null) {
+            mTimeout.cancel();
+            mTimeout = null;
+        }
+    }
+
+    private void onTimeout() {
+        int waiting = mWaiting;
+        mTimeout = null;
+        mWaiting = WAIT_NONE;
+        if (waiting == WAIT_DISCONNECT) {
+            // Released already, there is nothing left to abort.
+            mClosed = true;
+            mTransport.close();
+        } else {
+            abort();
+        }
+    }
+
+    private void onFixedReport(byte[] data) {
+        //parse data!!
+        double[] p = mPressures;
+        p[0] = p[1] = p[2] = Double.NaN;
+        NumericCodec.basicNuCmp(data, REPORT_PRESSURE_OFFSET, p);
+        double pulse = NumericCodec.basicNu(data, REPORT_PULSE_OFFSET);
+        long time = TimeCodec.absoluteTimeToMillis(data, REPORT_TIME_OFFSET, mZone);
+        if (time == TimeCodec.INVALID) {
+            // Agent without a usable clock: fall back to the time of reception.
+            time = System.currentTimeMillis();
+        }
+        deliver(new Measurement(mAddress, p[0], p[1], p[2], pulse, defaultUnit(), time));
+    }
+
+    // Agents re-send stored readings on reconnect; those are acknowledged but must not reach
+    // the statistics or the hub again.  The listener records the key once the reading is
+    // stored, see Listener.onMeasurement().
+    private void deliver(Measurement m) {
+        if (mDedup == null) {
+            mListener.onMeasurement(this, m);
+            return;
+        }
+        // The address only stands in for agents without a system-id; on TCP it names a single
+        // connection, so such agents are only deduplicated within it.
+        long key = DedupIndex.key(mSystemId != 0 ? mSystemId : mAddress.hashCode(),
+                m.time, m.systolic, m.diastolic, m.pulse);
+        if (mDedup.contains(key)) {
+            mListener.onDuplicate(this, m);
+        } else {
+            mListener.onMeasurement(this, m.withDedupKey(key));
+        }
+    }
+
+    // Pressure unit of the standard configurations; agents may override it per reading.
+    private int defaultUnit() {
+        return mDevConfigId == DEV_CONFIG_BP_KPA ? Measurement.UNIT_KPA : Measurement.UNIT_MMHG;
+    }
+
+    // Dispatches an event report on its event type; only the confirmed form is answered.
+    private void onEventReport(byte[] data, int length, boolean confirmed) throws IOException {
+        if (length < 20) return;
+        int eventType = readShort(data, 18);
+        switch (eventType) {
+            case Nomenclature.MDC_NOTI_SCAN_REPORT_MP_FIXED:
+                if (length <= 63) return;
+                //write back response with the invoke id of the report
+                if (confirmed) mTransport.send(dataResponse(data[6], data[7], eventType));
+                onFixedReport(data);
+                break;
+            case Nomenclature.MDC_NOTI_SCAN_REPORT_FIXED:
+            case Nomenclature.MDC_NOTI_UNBUF_SCAN_REPORT_FIXED:
+            case Nomenclature.MDC_NOTI_BUF_SCAN_REPORT_FIXED:
+                // Event report from a streaming agent.
+                if (mLayout == null || length < 30) return;
+                if (confirmed) mTransport.send(dataResponse(data[6], data[7], eventType));
+                onScanReport(data, length);
+                break;
+            case Nomenclature.MDC_NOTI_SEGMENT_DATA:
+                onSegmentData(data, length);
+                break;
+            case Nomenclature.MDC_NOTI_CONFIG:
+                if (mWaiting != WAIT_CONFIG || length < 28) return;
+                disarm();
+                onConfigReport(data, length);
+                mTransport.send(configResponse(data[6], data[7], readShort(data, 22),
+                        CONFIG_ACCEPTED));
+                mScheduler.schedule(mGetMds, GET_MDS_DELAY_MS);
+                break;
+        }
+    }
+
+    // Looks for a PM-store in a ConfigReport: config-report-id (22), object count (24) and
+    // list length (26), then per object its class, handle and attribute list.
+    private void onConfigReport(byte[] data, int length) {
+        int count = readShort(data, 24);
+        int offset = 28;
+        for (int i = 0; i < count && offset + 8 <= length; i++) {
+            int objClass = readShort(data, offset);
+            int handle = readShort(data, offset + 2);
+            if (objClass == Nomenclature.MDC_MOC_VMO_PMSTORE) {
+                mStoreHandle = handle;
+                return;
+            }
+            offset += 8 + readShort(data, offset + 6);
+        }
+    }
+
+    // Asks for the PM-segment of the configuration's layout, if there is one; a PM-store
+    // without a known layout is asked for its segments first.
+    private void requestSegments() throws IOException {
+        SegmentLayout layout = mSegmentLayout;
+        if (layout == null && mStoreHandle != 0) {
+            mTransport.send(segmentInfo(mNextInvokeId++ & 0xFFFF, mStoreHandle));
+            mPendingAction = Nomenclature.MDC_ACT_SEG_GET_INFO;
+            arm(WAIT_CONFIRM, TO_CONFIRM_ACTION_MS);
+            return;
+        }
+        if (layout == null || layout.entryLength() == 0) return;
+        mTransport.send(segmentTransfer(mNextInvokeId++ & 0xFFFF, layout.storeHandle(),
+                layout.segment()));
+        mPendingAction = Nomenclature.MDC_ACT_SEG_TRIG_XFER;
+        arm(WAIT_CONFIRM, TO_CONFIRM_ACTION_MS);
+    }
+
+    private void onActionResponse(byte[] data, int length) throws IOException {
+        mPendingAction = 0;
+        if (length < 16) return;
+        switch (readShort(data, 14)) {
+            case Nomenclature.MDC_ACT_SET_TIME:
+                requestSegments();
+                break;
+            case Nomenclature.MDC_ACT_SEG_GET_INFO:
+                int store = mStoreHandle;
+                mStoreHandle = 0;
+                mSegmentLayout = onSegmentInfo(store, data, length);
+                if (mSegmentLayout == null) return;
+                SegmentLayout.remember(mSystemId, mDevConfigId, mSegmentLayout);
+                requestSegments();
+                break;
+            case Nomenclature.MDC_ACT_SEG_TRIG_XFER:
+                // TrigSegmDataXferRsp: segment, then 0 if the transfer starts.
+                if (length >= 22 && readShort(data, 20) == 0) openTransfer();
+                break;
+        }
+    }
+
+    // Builds the layout of the first segment in a SegmentInfoList that holds entries, or of
+    // the first with an entry map if none reports its usage.  The list starts at 18 with its
+    // count and length; each SegmentInfo is seg-inst-no and an attribute list.
+    private static SegmentLayout onSegmentInfo(int store, byte[] data, int length) {
+        if (length < 22) return null;
+        int count = readShort(data, 18);
+        int offset = 22;
+        SegmentLayout fallback = null;
+        for (int i = 0; i < count && offset + 6 <= length; i++) {
+            int segment = readShort(data, offset);
+            int attributes = readShort(data, offset + 2);
+            int end = Math.min(length, offset + 6 + readShort(data, offset + 4));
+            int p = offset + 6;
+            SegmentLayout layout = null;
+            long usage = -1;
+            for (int j = 0; j < attributes && p + 4 <= end; j++) {
+                int id = readShort(data, p);
+                int n = readShort(data, p + 2);
+                p += 4;
+                if (p + n > end) break;
+                if (id == Nomenclature.MDC_ATTR_PM_SEG_MAP) {
+                    try {
+                        layout = new SegmentLayout(store, segment, data, p, n);
+                    } catch (IllegalArgumentException e) { /* Not usable. */ }
+                } else if (id == Nomenclature.MDC_ATTR_SEG_USAGE_CNT && n >= 4) {
+                    usage = readInt(data, p) & 0xFFFFFFFFL;
+                }
+                p += n;
+            }
+            if (layout != null && layout.entryLength() > 0) {
+                if (usage > 0) return layout;
+                if (fallback == null && usage < 0) fallback = layout;
+            }
+            offset = end;
+        }
+        return fallback;
+    }
+
+    // Gives up the PM-store download; segment data arriving anyway is refused.
+    private void endDownload() {
+        mStoreHandle = 0;
+        mSegmentLayout = null;
+    }
+
+    private void openTransfer() {
+        if (mTransfer != null || mDecoder == null) return;
+        mTransfer = mDecoder.open(mSegmentLayout, mAddress, defaultUnit(), mZone, mScheduler,
+                mSegmentSink);
+    }
+
+    // Acknowledges a segment data report right away and leaves the entries to the decoder.
+    // SegmDataEventDescr: segment (22), first entry (24), entry count (28), status (32),
+    // followed by the entries as an octet string (34).
+    private void onSegmentData(byte[] data, int length) throws IOException {
+        if (length < SEGMENT_ENTRIES_OFFSET) return;
+        SegmentLayout layout = mSegmentLayout;
+        int count = readInt(data, 28);
+        int entries = readShort(data, 34);
+        boolean usable = layout != null && layout.entryLength() > 0
+                && readShort(data, 12) == layout.storeHandle()
+                && readShort(data, 22) == layout.segment()
+                && SEGMENT_ENTRIES_OFFSET + entries <= length
+                && count >= 0 && count <= entries / layout.entryLength();
+        mTransport.send(segmentDataResponse(data,
+                usable ? SEVTSTA_MANAGER_CONFIRM : SEVTSTA_MANAGER_ABORT));
+        if (!usable) return;
+        if (mDecoder == null) {
+            Measurement[] readings = new Measurement[count];
+            int n = layout.decode(data, SEGMENT_ENTRIES_OFFSET, count, mAddress, defaultUnit(),
+                    mZone, System.currentTimeMillis(), readings);
+            mSegmentSink.onReadings(readings, n);
+            return;
+        }
+        // One transfer serves every segment of the session and is flushed in onClosed(), so
+        // readings of the last chunks are not lost when the agent disconnects right after.
+        openTransfer();
+        mTransfer.submit(Arrays.copyOfRange(data, SEGMENT_ENTRIES_OFFSET,
+                SEGMENT_ENTRIES_OFFSET + count * layout.entryLength()), count);
+    }
+
+    // Decodes the observations of a ScanReportInfoFixed and passes each sample of a streamed
+    // metric to the listener.  Nothing is allocated per report or per sample.
+    private void onScanReport(byte[] data, int length) {
+        StreamLayout layout = mLayout;
+        long now = System.currentTimeMillis();
+        // data-req-id (22), scan-report-no (24), observation count (26) and list length (28).
+        int count = readShort(data, 26);
+        int offset = 30;
+        for (int i = 0; i < count && offset + 4 <= length; i++) {
+            int handle = readShort(data, offset);
+            int valueLength = readShort(data, offset + 2);
+            offset += 4;
+            if (offset + valueLength > length) return;
+            int channel = layout.indexOf(handle);
+            if (channel >= 0) {
+                if (layout.kind(channel) == StreamLayout.KIND_NUMERIC) {
+                    onNumericSample(layout.metric(channel), data, offset, valueLength, now);
+                } else {
+                    onSampleArray(channel, data, offset, valueLength, now);
+                }
+            }
+            offset += valueLength;
+        }
+    }
+
+    private void onNumericSample(int metric, byte[] data, int offset, int length, long now) {
+        if (length < 2) return;
+        long time = TimeCodec.INVALID;
+        if (length >= 2 + TimeCodec.ABSOLUTE_TIME_LENGTH) {
+            time = TimeCodec.absoluteTimeToMillis(data, offset + 2, mZone);
+        }
+        mListener.onSample(this, metric, time == TimeCodec.INVALID ? now : time,
+                NumericCodec.basicNu(data, offset));
+    }
+
+    // Sample arrays carry no time stamps: samples are spaced by the channel's period and
+    // continue from the previous array unless that is more than a second off our clock.
+    private void onSampleArray(int channel, byte[] data, int offset, int length, long now) {
+        if (length < 2) return;
+        int samples = Math.min(readShort(data, offset), length - 2) / 2;
+        if (samples == 0) return;
+        StreamLayout layout = mLayout;
+        int metric = layout.metric(channel);
+        long period = layout.periodMicros(channel);
+        double scale = layout.scale(channel);
+        double base = layout.offset(channel);
+        long nowMicros = now * 1000;
+        long start = mNextSampleMicros[channel];
+        if (Math.abs(start + samples * period - nowMicros) > 1000000) {
+            start = nowMicros - samples * period;
+        }
+        offset += 2;
+        for (int i = 0; i < samples; i++) {
+            mListener.onSample(this, metric, (start + i * period) / 1000,
+                    readShort(data, offset + 2 * i) * scale + base);
+        }
+        mNextSampleMicros[channel] = start + samples * period;
+    }
+
+    // Decodes and caches the MDS attributes, then compares the agent clock with ours and issues
+    // Set-Time when it drifted and the agent allows the clock to be set.  Returns whether
+    // Set-Time was sent.
+    private boolean onMdsAttributes(byte[] data, int length) throws IOException {
+        mInfo = DeviceInfo.parse(mSystemId, mDevConfigId, data, length,
+                System.currentTimeMillis());
+        DeviceInfoCache.getInstance().put(mAddress, mInfo);
+        if (!mInfo.canSetClock()) return false;
+        int absolute = findAttribute(data, length, Nomenclature.MDC_ATTR_TIME_ABS,
+                TimeCodec.ABSOLUTE_TIME_LENGTH);
+        if (absolute < 0) return false;
+        long agent = TimeCodec.absoluteTimeToMillis(data, absolute, mZone);
+        long now = System.currentTimeMillis();
+        if (agent == TimeCodec.INVALID || Math.abs(agent - now) > SET_TIME_DRIFT_MS) {
+            sendSetTime();
+            return true;
+        }
+        return false;
+    }
+
+    private void sendSetTime() throws IOException {
+        mTransport.send(setTime(mNextInvokeId++ & 0xFFFF, System.currentTimeMillis(), mZone));
+        mPendingAction = Nomenclature.MDC_ACT_SET_TIME;
+        arm(WAIT_CONFIRM, TO_CONFIRM_ACTION_MS);
+    }
+
+    /**
+     * Finds an attribute in the attribute list of a Get response and returns the offset of its
+     * value, or -1 if it is missing or shorter than <code>minLength</code>.
+     */
+    static int findAttribute(byte[] data, int length, int id, int minLength) {
+        // APDU header (4), octet string length (2), invoke-id (2), choice (4), handle (2),
+        // attribute count (2) and list length (2).
+        int offset = 18;
+        while (offset + 4 <= length) {
+            int attrId = (data[offset] & 0xFF) << 8 | (data[offset + 1] & 0xFF);
+            int attrLength = (data[offset + 2] & 0xFF) << 8 | (data[offset + 3] & 0xFF);
+            offset += 4;
+            if (offset + attrLength > length) return -1;
+            if (attrId == id) return attrLength >= minLength ? offset : -1;
+            offset += attrLength;
+        }
+        return -1;
+    }
+
+    // Reads a big-endian unsigned 16 bit value.
+    static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xFF) << 8 | (b[offset + 1] & 0xFF);
+    }
+
+    // Reads a big-endian 32 bit value.
+    static int readInt(byte[] b, int offset) {
+        return readShort(b, offset) << 16 | readShort(b, offset + 2);
+    }
+
+    // Reads a big-endian 64 bit value.
+    static long readLong(byte[] b, int offset) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[offset + i] & 0xFF);
+        }
+        return v;
+    }
+}
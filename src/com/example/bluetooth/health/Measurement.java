@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+/**
+ * A single blood pressure reading decoded from an IEEE 11073-10407 fixed format event report.
+ * Instances are immutable and are handed from {@link BluetoothHDPService} to the upload
+ * {@link MeasurementSink}s.
+ */
+public final class Measurement {
+    // MDC unit codes used by the blood pressure specialization.
+    public static final int UNIT_MMHG = Nomenclature.MDC_DIM_MMHG;
+    public static final int UNIT_KPA = Nomenclature.MDC_DIM_KILO_PASCAL;
+    public static final int UNIT_BPM = Nomenclature.MDC_DIM_BEAT_PER_MIN;
+
+    public static final double MMHG_PER_KPA = 7.50061683;
+
+    // Transport address of the agent the reading came from.
+    public final String device;
+    // Pressures in {@link #unit}; NaN if the agent reported no value.
+    public final double systolic;
+    public final double diastolic;
+    public final double meanArterial;
+    // Pulse rate in beats per minute; NaN if not reported.
+    public final double pulse;
+    // Pressure unit, UNIT_MMHG or UNIT_KPA.
+    public final int unit;
+    // Time of the measurement in epoch milliseconds, see {@link TimeCodec}.
+    public final long time;
+    // Key of the reading in the {@link DedupIndex}, recorded once it is stored; 0 if none.
+    public final long dedupKey;
+
+    public Measurement(String device, double systolic, double diastolic, double meanArterial,
+            double pulse, int unit, long time) {
+        this(device, systolic, diastolic, meanArterial, pulse, unit, time, 0);
+    }
+
+    private Measurement(String device, double systolic, double diastolic, double meanArterial,
+            double pulse, int unit, long time, long dedupKey) {
+        this.device = device;
+        this.systolic = systolic;
+        this.diastolic = diastolic;
+        this.meanArterial = meanArterial;
+        this.pulse = pulse;
+        this.unit = unit;
+        this.time = time;
+        this.dedupKey = dedupKey;
+    }
+
+    /** The same reading with its dedup key. */
+    Measurement withDedupKey(long key) {
+        return new Measurement(device, systolic, diastolic, meanArterial, pulse, unit, time, key);
+    }
+
+    /** Factor converting this reading's pressures to mmHg. */
+    public double toMmHg() {
+        return unit == UNIT_KPA ? MMHG_PER_KPA : 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Systolic = %s, Diastolic = %s %s, pulse = %s at %tF %<tT",
+                format(systolic), format(diastolic), Nomenclature.unitSymbol(unit),
+                format(pulse), time);
+    }
+
+    // Whole numbers without a fraction, everything else with one decimal.
+    static String format(double v) {
+        if (v == Math.rint(v) && !Double.isInfinite(v)) return String.valueOf((long) v);
+        return String.format("%.1f", v);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.bluetooth.health.MeasurementContract.Columns;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Moves readings older than <code>archive_after_days</code> from the row store into
+ * {@link MeasurementSegments}, one segment per batch of a device.  Readings not yet uploaded
+ * by {@link SyncScheduler} stay in the row store.  Each batch is written and
+ * synced before its rows are deleted in the same transaction, and writing a segment that is
+ * already on disk is a no-op, so an interrupted run is simply repeated.
+ */
+class MeasurementArchiver {
+    private static final String TAG = "bp";
+
+    static final String SEGMENT_DIR = "segments";
+    static final int SEGMENT_READINGS = 4096;
+
+    private static MeasurementSegments sSegments;
+
+    /** The process-wide archive. */
+    static synchronized MeasurementSegments segments(Context context) {
+        if (sSegments == null) {
+            sSegments = new MeasurementSegments(
+                    new File(context.getApplicationContext().getFilesDir(), SEGMENT_DIR));
+        }
+        return sSegments;
+    }
+
+    private final Context mContext;
+    private final MeasurementDatabase mDatabase;
+    private final MeasurementSegments mSegments;
+
+    // Batch columns, reused across batches.
+    private final long[] mTimes = new long[SEGMENT_READINGS];
+    private final double[] mSystolic = new double[SEGMENT_READINGS];
+    private final double[] mDiastolic = new double[SEGMENT_READINGS];
+    private final double[] mMeanArterial = new double[SEGMENT_READINGS];
+    private final double[] mPulse = new double[SEGMENT_READINGS];
+    private final int[] mUnits = new int[SEGMENT_READINGS];
+
+    MeasurementArchiver(Context context) {
+        mContext = context;
+        mDatabase = MeasurementDatabase.getInstance(context);
+        mSegments = segments(context);
+    }
+
+    /** Archives readings taken before <code>cutoff</code>; returns how many were moved. */
+    int archive(long cutoff) {
+        SQLiteDatabase db = mDatabase.getWritableDatabase();
+        long uploaded = SyncScheduler.getUploadedId(mContext);
+        List<String> devices = new ArrayList<String>();
+        Cursor c = db.query(true, MeasurementDatabase.TABLE, new String[] { Columns.DEVICE },
+                Columns.TIME + " < ? AND " + Columns._ID + " <= ?", new String[] {
+                Long.toString(cutoff), Long.toString(uploaded) }, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                devices.add(c.getString(0));
+            }
+        } finally {
+            c.close();
+        }
+
+        int moved = 0;
+        for (String device : devices) {
+            try {
+                int n;
+                while ((n = archiveBatch(db, device, cutoff, uploaded)) > 0) {
+                    moved += n;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Archiving " + device + " failed", e);
+            }
+        }
+        if (moved > 0) Log.i(TAG, "Archived " + moved + " readings");
+        return moved;
+    }
+
+    // Moves the oldest batch of a device; returns its size.
+    private int archiveBatch(SQLiteDatabase db, String device, long cutoff, long uploaded)
+            throws IOException {
+        String where = Columns.DEVICE + " = ? AND " + Columns.TIME + " < ? AND " + Columns._ID
+                + " <= ?";
+        String[] args = { device, Long.toString(cutoff), Long.toString(uploaded) };
+        db.beginTransaction();
+        try {
+            int n = 0;
+            long lastId = 0;
+            Cursor c = db.query(MeasurementDatabase.TABLE, new String[] { Columns._ID,
+                    Columns.TIME, Columns.SYSTOLIC, Columns.DIASTOLIC, Columns.MEAN_ARTERIAL,
+                    Columns.PULSE, Columns.UNIT }, where, args, null, null,
+                    Columns.TIME + ", " + Columns._ID, Integer.toString(SEGMENT_READINGS));
+            try {
+                while (c.moveToNext()) {
+                    lastId = c.getLong(0);
+                    mTimes[n] = c.getLong(1);
+                    mSystolic[n] = getValue(c, 2);
+                    mDiastolic[n] = getValue(c, 3);
+                    mMeanArterial[n] = getValue(c, 4);
+                    mPulse[n] = getValue(c, 5);
+                    mUnits[n] = c.getInt(6);
+                    n++;
+                }
+            } finally {
+                c.close();
+            }
+            if (n == 0) return 0;
+            mSegments.append(device, mTimes[0], mTimes, mSystolic, mDiastolic, mMeanArterial,
+                    mPulse, mUnits, n);
+            // Exactly the rows read above, given the (time, _id) order.
+            long lastTime = mTimes[n - 1];
+            db.delete(MeasurementDatabase.TABLE, where + " AND (" + Columns.TIME + " < ? OR ("
+                    + Columns.TIME + " = ? AND " + Columns._ID + " <= ?))", new String[] {
+                    device, Long.toString(cutoff), Long.toString(uploaded),
+                    Long.toString(lastTime), Long.toString(lastTime), Long.toString(lastId) });
+            db.setTransactionSuccessful();
+            return n;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static double getValue(Cursor c, int column) {
+        return c.isNull(column) ? Double.NaN : c.getDouble(column);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Contract of {@link MeasurementProvider}, the measurement history shared with other apps.
+ *
+ * <p>Query parameters on any measurement URI:
+ * <ul>
+ * <li><code>from</code>, <code>to</code> - time range in epoch millis, inclusive/exclusive.</li>
+ * <li><code>limit</code>, <code>offset</code> - page of rows, in sort order.</li>
+ * </ul>
+ * The whole history can be read as a file from {@link #exportUri(String, boolean)}.
+ * Readers need {@link #PERMISSION_READ}.  Observers of {@link #CONTENT_URI} are notified with
+ * the {@link #deviceUri(String) device URI} of each change; deletions that are not limited to
+ * one device are notified on CONTENT_URI itself, which reaches the observers of every device
+ * URI as well.
+ */
+public final class MeasurementContract {
+    public static final String AUTHORITY = "com.example.bluetooth.health.measurements";
+    public static final String PERMISSION_READ =
+            "com.example.bluetooth.health.permission.READ_MEASUREMENTS";
+
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/measurements");
+
+    public static final String CONTENT_TYPE =
+            "vnd.android.cursor.dir/vnd.com.example.bluetooth.health.measurement";
+    public static final String CONTENT_ITEM_TYPE =
+            "vnd.android.cursor.item/vnd.com.example.bluetooth.health.measurement";
+
+    public static final String PARAM_FROM = "from";
+    public static final String PARAM_TO = "to";
+    public static final String PARAM_LIMIT = "limit";
+    public static final String PARAM_OFFSET = "offset";
+    public static final String PARAM_FORMAT = "format";
+    public static final String PARAM_GZIP = "gzip";
+
+    /** Export formats: FHIR R4 Observations as NDJSON, or CSV. */
+    public static final String FORMAT_FHIR_NDJSON = "ndjson";
+    public static final String FORMAT_CSV = "csv";
+
+    public static final String MIME_FHIR_NDJSON = "application/fhir+ndjson";
+    public static final String MIME_CSV = "text/csv";
+    public static final String MIME_GZIP = "application/gzip";
+
+    /** Columns; values are as reported by the agent, in {@link #UNIT}. */
+    public static final class Columns implements BaseColumns {
+        public static final String DEVICE = "device";
+        public static final String SYSTOLIC = "systolic";
+        public static final String DIASTOLIC = "diastolic";
+        public static final String MEAN_ARTERIAL = "mean_arterial";
+        public static final String PULSE = "pulse";
+        /** {@link Measurement#UNIT_MMHG} or {@link Measurement#UNIT_KPA}. */
+        public static final String UNIT = "unit";
+        /** Epoch millis. */
+        public static final String TIME = "time";
+
+        public static final String DEFAULT_SORT_ORDER = TIME + " DESC";
+
+        private Columns() {}
+    }
+
+    private MeasurementContract() {}
+
+    /** URI of the readings of one device. */
+    public static Uri deviceUri(String device) {
+        return CONTENT_URI.buildUpon().appendPath("device").appendPath(device).build();
+    }
+
+    /**
+     * URI of the archived readings of one device.  Readings older than the archive age move
+     * from {@link #deviceUri(String)} to here.  Supports projection, time range and paging;
+     * rows are in time order, <code>_id</code> is the position in the result and selection and
+     * sort order are not supported.
+     */
+    public static Uri archiveUri(String device) {
+        return deviceUri(device).buildUpon().appendPath("archive").build();
+    }
+
+    /**
+     * URI of a bulk export of all readings, archived ones included, for
+     * {@link android.content.ContentResolver#openInputStream(Uri)}.  The export is produced
+     * in full before the stream is returned, and the open fails if it cannot be; the time
+     * range parameters apply, paging does not.
+     */
+    public static Uri exportUri(String format, boolean gzip) {
+        return CONTENT_URI.buildUpon().appendPath("export")
+                .appendQueryParameter(PARAM_FORMAT, format)
+                .appendQueryParameter(PARAM_GZIP, Boolean.toString(gzip))
+                .build();
+    }
+
+    /** Adds a time range and page to a measurement URI. */
+    public static Uri window(Uri uri, long from, long to, int limit, int offset) {
+        return uri.buildUpon()
+                .appendQueryParameter(PARAM_FROM, Long.toString(from))
+                .appendQueryParameter(PARAM_TO, Long.toString(to))
+                .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                .appendQueryParameter(PARAM_OFFSET, Integer.toString(offset))
+                .build();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import com.example.bluetooth.health.MeasurementContract.Columns;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Local measurement store behind {@link MeasurementProvider}.  Rows are indexed by device and
+ * time so that per-device and time-range windows are index range scans.  One instance per
+ * process, shared by the provider and {@link MeasurementArchiver}.
+ */
+class MeasurementDatabase extends SQLiteOpenHelper {
+    static final String NAME = "measurements.db";
+    static final int VERSION = 1;
+
+    static final String TABLE = "measurements";
+
+    private static MeasurementDatabase sInstance;
+
+    static synchronized MeasurementDatabase getInstance(Context context) {
+        if (sInstance == null) sInstance = new MeasurementDatabase(context.getApplicationContext());
+        return sInstance;
+    }
+
+    private MeasurementDatabase(Context context) {
+        super(context, NAME, null, VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + Columns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + Columns.DEVICE + " TEXT NOT NULL, "
+                + Columns.SYSTOLIC + " REAL, "
+                + Columns.DIASTOLIC + " REAL, "
+                + Columns.MEAN_ARTERIAL + " REAL, "
+                + Columns.PULSE + " REAL, "
+                + Columns.UNIT + " INTEGER NOT NULL, "
+                + Columns.TIME + " INTEGER NOT NULL)");
+        db.execSQL("CREATE INDEX " + TABLE + "_device_time ON " + TABLE
+                + " (" + Columns.DEVICE + ", " + Columns.TIME + ")");
+        db.execSQL("CREATE INDEX " + TABLE + "_time ON " + TABLE + " (" + Columns.TIME + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Only one version so far.
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming writer for bulk exports of readings, as CSV or as FHIR R4 Observation resources in
+ * NDJSON (one resource per line, the FHIR bulk data format).
+ *
+ * Readings are formatted straight into one fixed buffer which is written out whenever it
+ * fills, optionally through gzip; nothing is kept or allocated per reading, so an export of
+ * any size runs in constant memory.  Not tied to Android; not thread-safe.
+ *
+ * <p>CSV columns are those of {@link MeasurementContract.Columns}, with the time in ISO 8601
+ * UTC and the unit as its symbol.  In NDJSON each reading becomes a blood pressure panel
+ * Observation with systolic, diastolic and mean components and, if there is a pulse, a
+ * separate heart rate Observation; codes are given in LOINC and in 11073-10101.
+ */
+public final class MeasurementExport {
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_FHIR_NDJSON = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Longest a single reading gets apart from the device, so add() never has to check for
+    // space mid-way.
+    private static final int MAX_READING = 4096;
+
+    private static final byte[] CSV_HEADER =
+            ascii("device,time,systolic,diastolic,mean_arterial,pulse,unit\n");
+
+    private static final String MDC_SYSTEM = "urn:iso:std:iso:11073:10101";
+    private static final byte[] FHIR_BP_START = ascii("{\"resourceType\":\"Observation\","
+            + "\"id\":\"bp-");
+    private static final byte[] FHIR_HR_START = ascii("{\"resourceType\":\"Observation\","
+            + "\"id\":\"hr-");
+    private static final byte[] FHIR_BP_CODE = ascii("\",\"status\":\"final\","
+            + "\"category\":[{\"coding\":[{\"system\":"
+            + "\"http://terminology.hl7.org/CodeSystem/observation-category\","
+            + "\"code\":\"vital-signs\"}]}],"
+            + "\"code\":{\"coding\":[" + coding("85354-9", Nomenclature.MDC_PRESS_BLD_NONINV)
+            + "]},\"device\":{\"identifier\":{\"value\":\"");
+    private static final byte[] FHIR_HR_CODE = ascii("\",\"status\":\"final\","
+            + "\"category\":[{\"coding\":[{\"system\":"
+            + "\"http://terminology.hl7.org/CodeSystem/observation-category\","
+            + "\"code\":\"vital-signs\"}]}],"
+            + "\"code\":{\"coding\":[" + coding("8867-4", Nomenclature.MDC_PULS_RATE_NON_INV)
+            + "]},\"device\":{\"identifier\":{\"value\":\"");
+    private static final byte[] FHIR_TIME = ascii("\"}},\"effectiveDateTime\":\"");
+    private static final byte[] FHIR_COMPONENTS = ascii("\",\"component\":[");
+    private static final byte[] FHIR_SYSTOLIC = component("8480-6",
+            Nomenclature.MDC_PRESS_BLD_NONINV_SYS);
+    private static final byte[] FHIR_DIASTOLIC = component("8462-4",
+            Nomenclature.MDC_PRESS_BLD_NONINV_DIA);
+    private static final byte[] FHIR_MEAN = component("8478-0",
+            Nomenclature.MDC_PRESS_BLD_NONINV_MEAN);
+    private static final byte[] FHIR_HR_VALUE = ascii("\",\"valueQuantity\":{\"value\":");
+    private static final byte[] FHIR_UNIT = ascii(",\"unit\":\"");
+    private static final byte[] FHIR_UCUM = ascii("\",\"system\":\"http://unitsofmeasure.org\","
+            + "\"code\":\"");
+    private static final byte[] FHIR_COMPONENT_END = ascii("\"}}");
+    private static final byte[] FHIR_BP_END = ascii("]}\n");
+    private static final byte[] FHIR_HR_END = ascii("\"}}\n");
+
+    private final OutputStream mOut;
+    private final GZIPOutputStream mGzip;
+    private final int mFormat;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mLength;
+    private long mCount;
+
+    // Current device, escaped for the output format, and as a FHIR id fragment.
+    private byte[] mDevice = new byte[0];
+    private byte[] mDeviceId = new byte[0];
+    // Space a reading needs in the buffer.
+    private int mReserve = MAX_READING;
+
+    /**
+     * @param out receives the export; it is not closed by {@link #finish()}.
+     * @param gzip whether to compress.  Speed is favoured over ratio so compression keeps up
+     *             with the disk.
+     */
+    public MeasurementExport(OutputStream out, int format, boolean gzip) throws IOException {
+        if (format != FORMAT_CSV && format != FORMAT_FHIR_NDJSON) {
+            throw new IllegalArgumentException("Unknown format " + format);
+        }
+        mFormat = format;
+        if (gzip) {
+            mGzip = new GZIPOutputStream(out, BUFFER_SIZE) {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+            mOut = mGzip;
+        } else {
+            mGzip = null;
+            mOut = out;
+        }
+        if (format == FORMAT_CSV) put(CSV_HEADER);
+    }
+
+    /** Sets the device of the readings that follow. */
+    public void setDevice(String device) {
+        StringBuilder escaped = new StringBuilder(device.length() + 2);
+        StringBuilder id = new StringBuilder(device.length());
+        if (mFormat == FORMAT_CSV) {
+            // RFC 4180: quote every field that needs it, doubling embedded quotes.
+            boolean quote = false;
+            for (int i = 0; i < device.length(); i++) {
+                char c = device.charAt(i);
+                if (c == '"' || c == ',' || c == '\n' || c == '\r') quote = true;
+                if (c == '"') escaped.append('"');
+                escaped.append(c);
+            }
+            if (quote) escaped.insert(0, '"').append('"');
+        } else {
+            for (int i = 0; i < device.length(); i++) {
+                char c = device.charAt(i);
+                if (c == '"' || c == '\\') {
+                    escaped.append('\\').append(c);
+                } else if (c < 0x20) {
+                    escaped.append(String.format("\\u%04x", (int) c));
+                } else {
+                    escaped.append(c);
+                }
+                // FHIR ids allow letters, digits, '-' and '.'.
+                boolean idChar = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+                        || c >= '0' && c <= '9' || c == '.';
+                id.append(idChar ? c : '-');
+            }
+        }
+        try {
+            mDevice = escaped.toString().getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        mDeviceId = ascii(id.toString());
+        // Each of the two observations names the device twice.
+        mReserve = MAX_READING + 2 * (mDevice.length + mDeviceId.length);
+        if (mReserve > BUFFER_SIZE) throw new IllegalArgumentException("Device name too long");
+    }
+
+    /** Writes one reading; see {@link Measurement} for the meaning of the values. */
+    public void add(long time, double systolic, double diastolic, double meanArterial,
+            double pulse, int unit) throws IOException {
+        if (mLength + mReserve > mBuffer.length) flush();
+        if (mFormat == FORMAT_CSV) {
+            put(mDevice);
+            put(',');
+            putTime(time);
+            put(',');
+            putValue(systolic);
+            put(',');
+            putValue(diastolic);
+            put(',');
+            putValue(meanArterial);
+            put(',');
+            putValue(pulse);
+            put(',');
+            putAscii(Nomenclature.unitSymbol(unit));
+            put('\n');
+        } else {
+            if (isValue(systolic) || isValue(diastolic) || isValue(meanArterial)) {
+                startObservation(FHIR_BP_START, FHIR_BP_CODE, time);
+                put(FHIR_COMPONENTS);
+                boolean first = true;
+                first = putComponent(FHIR_SYSTOLIC, systolic, unit, first);
+                first = putComponent(FHIR_DIASTOLIC, diastolic, unit, first);
+                putComponent(FHIR_MEAN, meanArterial, unit, first);
+                put(FHIR_BP_END);
+            }
+            if (isValue(pulse)) {
+                startObservation(FHIR_HR_START, FHIR_HR_CODE, time);
+                put(FHIR_HR_VALUE);
+                putValue(pulse);
+                put(FHIR_UNIT);
+                putAscii("bpm");
+                put(FHIR_UCUM);
+                putAscii("/min");
+                put(FHIR_HR_END);
+            }
+        }
+        mCount++;
+    }
+
+    /** Number of readings written so far. */
+    public long getCount() {
+        return mCount;
+    }
+
+    /** Writes out everything buffered and completes the compressed stream. */
+    public void finish() throws IOException {
+        flush();
+        if (mGzip != null) mGzip.finish();
+        mOut.flush();
+    }
+
+    private void startObservation(byte[] start, byte[] code, long time) {
+        put(start);
+        put(mDeviceId);
+        put('-');
+        putLong(time);
+        put(code);
+        put(mDevice);
+        put(FHIR_TIME);
+        putTime(time);
+    }
+
+    private boolean putComponent(byte[] component, double value, int unit, boolean first) {
+        if (!isValue(value)) return first;
+        if (!first) put(',');
+        put(component);
+        putValue(value);
+        put(FHIR_UNIT);
+        putAscii(Nomenclature.unitSymbol(unit));
+        put(FHIR_UCUM);
+        putAscii(unit == Nomenclature.MDC_DIM_KILO_PASCAL ? "kPa" : "mm[Hg]");
+        put(FHIR_COMPONENT_END);
+        return false;
+    }
+
+    private void flush() throws IOException {
+        if (mLength == 0) return;
+        mOut.write(mBuffer, 0, mLength);
+        mLength = 0;
+    }
+
+    private void put(byte[] b) {
+        System.arraycopy(b, 0, mBuffer, mLength, b.length);
+        mLength += b.length;
+    }
+
+    private void put(char c) {
+        mBuffer[mLength++] = (byte) c;
+    }
+
+    // For the ASCII-only strings of the nomenclature; null writes nothing.
+    private void putAscii(String s) {
+        if (s == null) return;
+        for (int i = 0; i < s.length(); i++) {
+            mBuffer[mLength++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void putLong(long v) {
+        if (v < 0) {
+            put('-');
+            v = -v;
+        }
+        int start = mLength;
+        do {
+            mBuffer[mLength++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0);
+        // Digits were written backwards.
+        for (int i = start, j = mLength - 1; i < j; i++, j--) {
+            byte b = mBuffer[i];
+            mBuffer[i] = mBuffer[j];
+            mBuffer[j] = b;
+        }
+    }
+
+    // Values with one decimal, as in Measurement.format(); missing values as nothing.
+    private void putValue(double v) {
+        if (!isValue(v)) return;
+        long tenths = Math.round(v * 10);
+        if (tenths < 0) {
+            put('-');
+            tenths = -tenths;
+        }
+        putLong(tenths / 10);
+        if (tenths % 10 != 0) {
+            put('.');
+            put((char) ('0' + tenths % 10));
+        }
+    }
+
+    // ISO 8601 in UTC, with milliseconds only if there are any.
+    private void putTime(long millis) {
+        long days = floorDiv(millis, 86400000L);
+        int ms = (int) (millis - days * 86400000L);
+        // Civil date from days since 1970-01-01 (H. Hinnant, "chrono-compatible algorithms").
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        putDigits(year, 4);
+        put('-');
+        putDigits(month, 2);
+        put('-');
+        putDigits(day, 2);
+        put('T');
+        putDigits(ms / 3600000, 2);
+        put(':');
+        putDigits(ms / 60000 % 60, 2);
+        put(':');
+        putDigits(ms / 1000 % 60, 2);
+        if (ms % 1000 != 0) {
+            put('.');
+            putDigits(ms % 1000, 3);
+        }
+        put('Z');
+    }
+
+    private void putDigits(long v, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            mBuffer[mLength + i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        mLength += width;
+    }
+
+    private static long floorDiv(long a, long b) {
+        long q = a / b;
+        return (a % b != 0 && (a < 0) != (b < 0)) ? q - 1 : q;
+    }
+
+    private static boolean isValue(double v) {
+        return !Double.isNaN(v) && !Double.isInfinite(v);
+    }
+
+    private static String coding(String loinc, int mdc) {
+        return "{\"system\":\"http://loinc.org\",\"code\":\"" + loinc + "\"},"
+                + "{\"system\":\"" + MDC_SYSTEM + "\",\"code\":\""
+                + Nomenclature.key(Nomenclature.MDC_PART_SCADA, mdc) + "\"}";
+    }
+
+    private static byte[] component(String loinc, int mdc) {
+        return ascii("{\"code\":{\"coding\":[" + coding(loinc, mdc) + "]},"
+                + "\"valueQuantity\":{\"value\":");
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.TreeSet;
+
+import com.example.bluetooth.health.MeasurementContract.Columns;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Bulk export of the measurement history through {@link MeasurementExport}.  Devices are
+ * exported one after the other in address order, each with its archived readings followed by
+ * those still in the row store, all in time order.  Both sources are streamed: archive
+ * segments are decoded reading by reading and the row store is read through a cursor window.
+ */
+class MeasurementExporter {
+    private final MeasurementDatabase mDatabase;
+    private final MeasurementSegments mSegments;
+
+    MeasurementExporter(Context context) {
+        mDatabase = MeasurementDatabase.getInstance(context);
+        mSegments = MeasurementArchiver.segments(context);
+    }
+
+    /**
+     * Exports readings with <code>from <= time < to</code> to a file.  The file is written
+     * under a temporary name and renamed when complete.  Returns the number of readings.
+     */
+    long export(File file, int format, boolean gzip, long from, long to) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        long count;
+        try {
+            count = export(out, format, gzip, from, to);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp);
+        }
+        return count;
+    }
+
+    /** Exports readings with <code>from <= time < to</code>; <code>out</code> stays open. */
+    long export(OutputStream out, int format, boolean gzip, long from, long to)
+            throws IOException {
+        final MeasurementExport export = new MeasurementExport(out, format, gzip);
+        SQLiteDatabase db = mDatabase.getReadableDatabase();
+        TreeSet<String> devices = new TreeSet<String>(mSegments.devices());
+        Cursor c = db.query(true, MeasurementDatabase.TABLE, new String[] { Columns.DEVICE },
+                null, null, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                devices.add(c.getString(0));
+            }
+        } finally {
+            c.close();
+        }
+
+        // The visitor cannot throw, so a write failure is carried out of the scan.
+        final IOException[] failure = new IOException[1];
+        MeasurementSegments.Visitor visitor = new MeasurementSegments.Visitor() {
+            public boolean onReading(long time, double systolic, double diastolic,
+                    double meanArterial, double pulse, int unit) {
+                try {
+                    export.add(time, systolic, diastolic, meanArterial, pulse, unit);
+                    return true;
+                } catch (IOException e) {
+                    failure[0] = e;
+                    return false;
+                }
+            }
+        };
+        for (String device : devices) {
+            export.setDevice(device);
+            mSegments.scan(device, from, to, visitor);
+            if (failure[0] != null) throw failure[0];
+            c = db.query(MeasurementDatabase.TABLE, new String[] { Columns.TIME,
+                    Columns.SYSTOLIC, Columns.DIASTOLIC, Columns.MEAN_ARTERIAL, Columns.PULSE,
+                    Columns.UNIT }, Columns.DEVICE + " = ? AND " + Columns.TIME + " >= ? AND "
+                    + Columns.TIME + " < ?", new String[] { device, Long.toString(from),
+                    Long.toString(to) }, null, null, Columns.TIME + ", " + Columns._ID);
+            try {
+                while (c.moveToNext()) {
+                    export.add(c.getLong(0), getValue(c, 1), getValue(c, 2), getValue(c, 3),
+                            getValue(c, 4), c.getInt(5));
+                }
+            } finally {
+                c.close();
+            }
+        }
+        export.finish();
+        return export.getCount();
+    }
+
+    private static double getValue(Cursor c, int column) {
+        return c.isNull(column) ? Double.NaN : c.getDouble(column);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.util.Log;
+
+/**
+ * Hands decoded readings from channel threads to a single consumer thread that runs the slow
+ * downstream work (persistence, upload, notification) in batches.
+ *
+ * Every channel publishes into its own {@link SpscRing}, so publishing never takes a lock or
+ * waits for the consumer.  Should a ring fill up while the consumer is stalled, readings spill
+ * into an unbounded lock-free overflow queue of that channel instead of being dropped or
+ * blocking the channel; order is kept.  The consumer drains all rings, up to
+ * <code>batchSize</code> readings at a time, and otherwise waits per its {@link WaitStrategy}.
+ */
+public final class MeasurementPipeline {
+    private static final String TAG = "bp";
+
+    /** Downstream work, called on the consumer thread. */
+    public interface Stage {
+        /** The array is reused after the call. */
+        void onBatch(Measurement[] batch, int count);
+
+        /**
+         * onBatch() threw for this batch, which is not retried since part of it may have been
+         * handled.  The array is reused after the call.
+         */
+        void onFailed(Measurement[] batch, int count, RuntimeException e);
+    }
+
+    private final Stage mStage;
+    private final WaitStrategy mWait;
+    private final int mRingSize;
+    private final Measurement[] mBatch;
+    private final CopyOnWriteArrayList<Channel> mChannels = new CopyOnWriteArrayList<Channel>();
+    private final Thread mConsumer;
+    private volatile boolean mRunning = true;
+
+    private final WaitStrategy.Condition mHasWork = new WaitStrategy.Condition() {
+        public boolean hasWork() {
+            if (!mRunning) return true;
+            for (Channel c : mChannels) {
+                if (c.hasWork()) return true;
+            }
+            return false;
+        }
+    };
+
+    public MeasurementPipeline(String name, Stage stage, WaitStrategy wait, int ringSize,
+            int batchSize) {
+        mStage = stage;
+        mWait = wait;
+        mRingSize = ringSize;
+        mBatch = new Measurement[batchSize];
+        mConsumer = new Thread(new Runnable() {
+            public void run() {
+                consume();
+            }
+        }, name);
+        mConsumer.setDaemon(true);
+    }
+
+    public void start() {
+        mConsumer.start();
+    }
+
+    /** Opens a producer endpoint; use it from one thread only. */
+    public Channel open() {
+        Channel c = new Channel();
+        mChannels.add(c);
+        return c;
+    }
+
+    /** Stops the consumer once everything published so far has been handled. */
+    public void close() {
+        mRunning = false;
+        mWait.signal();
+    }
+
+    /** Waits up to timeoutMs for the consumer to stop after {@link #close()}. */
+    public boolean join(long timeoutMs) throws InterruptedException {
+        mConsumer.join(timeoutMs);
+        return !mConsumer.isAlive();
+    }
+
+    /** Producer endpoint of one channel. */
+    public final class Channel {
+        private final SpscRing<Measurement> mRing = new SpscRing<Measurement>(mRingSize);
+        private final ConcurrentLinkedQueue<Measurement> mOverflow =
+                new ConcurrentLinkedQueue<Measurement>();
+        private volatile boolean mClosed;
+        private volatile int mOverflowed;
+
+        private Channel() {}
+
+        /** Publishes a reading; never blocks. */
+        public void publish(Measurement m) {
+            // Once spilled, keep spilling until the consumer caught up, to preserve order.
+            if (!mOverflow.isEmpty() || !mRing.offer(m)) {
+                mOverflow.add(m);
+                mOverflowed++;
+            }
+            mWait.signal();
+        }
+
+        /** Readings that did not fit into the ring. */
+        public int getOverflowed() {
+            return mOverflowed;
+        }
+
+        /** The channel is done; remaining readings are still delivered. */
+        public void close() {
+            mClosed = true;
+            mWait.signal();
+        }
+
+        boolean hasWork() {
+            return mClosed || !isDrained();
+        }
+
+        boolean isDrained() {
+            return mRing.isEmpty() && mOverflow.isEmpty();
+        }
+
+        // Consumer: moves up to max readings into the batch.  An overflowed reading is only
+        // taken once the ring is seen empty after seeing that reading, since everything the
+        // producer put into the ring before it is visible by then.
+        int drain(Measurement[] batch, int offset, int max) {
+            int n = mRing.drain(batch, offset, max);
+            Measurement m;
+            while (n < max && (m = mOverflow.peek()) != null) {
+                if (!mRing.isEmpty()) {
+                    n += mRing.drain(batch, offset + n, max - n);
+                    continue;
+                }
+                mOverflow.poll();
+                batch[offset + n++] = m;
+            }
+            return n;
+        }
+    }
+
+    // The readings of a batch, one per line, for the log.
+    private static String describe(Measurement[] batch, int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(count).append(" readings:");
+        for (int i = 0; i < count; i++) {
+            sb.append("\n  ").append(batch[i].device).append(' ').append(batch[i]);
+        }
+        return sb.toString();
+    }
+
+    private void consume() {
+        Measurement[] batch = mBatch;
+        int idle = 0;
+        while (true) {
+            int count = 0;
+            boolean running = mRunning;
+            for (Channel c : mChannels) {
+                count += c.drain(batch, count, batch.length - count);
+                if (c.mClosed && c.isDrained()) mChannels.remove(c);
+                if (count == batch.length) break;
+            }
+            if (count > 0) {
+                idle = 0;
+                try {
+                    mStage.onBatch(batch, count);
+                } catch (RuntimeException e) {
+                    // One bad batch must not stop the pipeline.
+                    Log.e(TAG, "Stage failed on " + describe(batch, count), e);
+                    try {
+                        mStage.onFailed(batch, count, e);
+                    } catch (RuntimeException e2) {
+                        Log.e(TAG, "Failure handling failed too", e2);
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    batch[i] = null;
+                }
+                continue;
+            }
+            if (!running) return;
+            try {
+                mWait.await(++idle, mHasWork);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.example.bluetooth.health.MeasurementContract.Columns;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+/**
+ * Serves the measurement history described by {@link MeasurementContract}.
+ *
+ * <p>Queries are index range scans over {@link MeasurementDatabase}; the returned cursors
+ * are filled window by window as they are read, so a page costs only the rows it returns.
+ */
+public class MeasurementProvider extends ContentProvider {
+    private static final String TAG = "bp";
+
+    private static final int MEASUREMENTS = 1;
+    private static final int MEASUREMENT_ID = 2;
+    private static final int DEVICE = 3;
+    private static final int DEVICE_ARCHIVE = 4;
+    private static final int EXPORT = 5;
+
+    private static final UriMatcher sMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+    static {
+        sMatcher.addURI(MeasurementContract.AUTHORITY, "measurements", MEASUREMENTS);
+        sMatcher.addURI(MeasurementContract.AUTHORITY, "measurements/#", MEASUREMENT_ID);
+        sMatcher.addURI(MeasurementContract.AUTHORITY, "measurements/device/*", DEVICE);
+        sMatcher.addURI(MeasurementContract.AUTHORITY, "measurements/device/*/archive",
+                DEVICE_ARCHIVE);
+        sMatcher.addURI(MeasurementContract.AUTHORITY, "measurements/export", EXPORT);
+    }
+
+    private static final String[] ALL_COLUMNS = { Columns._ID, Columns.DEVICE, Columns.SYSTOLIC,
+            Columns.DIASTOLIC, Columns.MEAN_ARTERIAL, Columns.PULSE, Columns.UNIT, Columns.TIME };
+
+    // Only known columns may be projected.
+    private static final HashMap<String, String> sProjection = new HashMap<String, String>();
+    static {
+        for (String column : ALL_COLUMNS) {
+            sProjection.put(column, column);
+        }
+    }
+
+    private MeasurementDatabase mDatabase;
+
+    @Override
+    public boolean onCreate() {
+        mDatabase = MeasurementDatabase.getInstance(getContext());
+        return true;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        switch (sMatcher.match(uri)) {
+            case MEASUREMENTS:
+            case DEVICE:
+            case DEVICE_ARCHIVE:
+                return MeasurementContract.CONTENT_TYPE;
+            case MEASUREMENT_ID:
+                return MeasurementContract.CONTENT_ITEM_TYPE;
+            case EXPORT:
+                if (isGzip(uri)) return MeasurementContract.MIME_GZIP;
+                return exportFormat(uri) == MeasurementExport.FORMAT_CSV
+                        ? MeasurementContract.MIME_CSV : MeasurementContract.MIME_FHIR_NDJSON;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        if (sMatcher.match(uri) == DEVICE_ARCHIVE) {
+            if (selection != null || sortOrder != null) {
+                throw new IllegalArgumentException("Selection and sort order not supported: "
+                        + uri);
+            }
+            return queryArchive(uri, projection);
+        }
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(MeasurementDatabase.TABLE);
+        builder.setProjectionMap(sProjection);
+        builder.setStrict(true);
+        List<String> args = new ArrayList<String>();
+        String where = where(uri, args);
+        if (where.length() > 0) builder.appendWhere(where);
+
+        String limit = null;
+        if (uri.getQueryParameter(MeasurementContract.PARAM_LIMIT) != null) {
+            int offset = parseInt(uri, MeasurementContract.PARAM_OFFSET, 0);
+            limit = offset + "," + parseInt(uri, MeasurementContract.PARAM_LIMIT, 0);
+        }
+        if (sortOrder == null) sortOrder = Columns.DEFAULT_SORT_ORDER;
+
+        Cursor c = builder.query(mDatabase.getReadableDatabase(), projection, selection,
+                concat(args, selectionArgs), null, null, sortOrder, limit);
+        c.setNotificationUri(getContext().getContentResolver(), uri);
+        return c;
+    }
+
+    // Decodes the requested window of a device's archive into a cursor.
+    private Cursor queryArchive(Uri uri, String[] projection) {
+        final String device = uri.getPathSegments().get(2);
+        final String[] columns = projection != null ? projection : ALL_COLUMNS;
+        for (String column : columns) {
+            if (!sProjection.containsKey(column)) {
+                throw new IllegalArgumentException("Invalid column " + column);
+            }
+        }
+        String from = uri.getQueryParameter(MeasurementContract.PARAM_FROM);
+        String to = uri.getQueryParameter(MeasurementContract.PARAM_TO);
+        final int offset = parseInt(uri, MeasurementContract.PARAM_OFFSET, 0);
+        final int limit = parseInt(uri, MeasurementContract.PARAM_LIMIT, Integer.MAX_VALUE);
+        final MatrixCursor cursor = new MatrixCursor(columns, Math.min(limit, 256));
+        try {
+            MeasurementArchiver.segments(getContext()).scan(device,
+                    from != null ? parseLong(uri, MeasurementContract.PARAM_FROM) : Long.MIN_VALUE,
+                    to != null ? parseLong(uri, MeasurementContract.PARAM_TO) : Long.MAX_VALUE,
+                    new MeasurementSegments.Visitor() {
+                        private int mPosition;
+
+                        public boolean onReading(long time, double systolic, double diastolic,
+                                double meanArterial, double pulse, int unit) {
+                            int position = mPosition++;
+                            if (position < offset) return true;
+                            Object[] row = new Object[columns.length];
+                            for (int i = 0; i < columns.length; i++) {
+                                String c = columns[i];
+                                if (Columns._ID.equals(c)) row[i] = position;
+                                else if (Columns.DEVICE.equals(c)) row[i] = device;
+                                else if (Columns.SYSTOLIC.equals(c)) row[i] = orNull(systolic);
+                                else if (Columns.DIASTOLIC.equals(c)) row[i] = orNull(diastolic);
+                                else if (Columns.MEAN_ARTERIAL.equals(c))
+                                    row[i] = orNull(meanArterial);
+                                else if (Columns.PULSE.equals(c)) row[i] = orNull(pulse);
+                                else if (Columns.UNIT.equals(c)) row[i] = unit;
+                                else row[i] = time;
+                            }
+                            cursor.addRow(row);
+                            return position + 1 - offset < limit;
+                        }
+                    });
+        } catch (IOException e) {
+            cursor.close();
+            throw new SQLException("Failed to read archive of " + device + ": " + e);
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        return cursor;
+    }
+
+    /**
+     * Opens a bulk export.  The export is written to a temporary file in the cache dir and
+     * opened only once it is complete, so a failed export fails the open instead of handing
+     * out a truncated file.  The file is unlinked right away; the descriptor keeps it alive.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sMatcher.match(uri) != EXPORT) throw new FileNotFoundException("No file at " + uri);
+        if (!"r".equals(mode)) throw new FileNotFoundException("Read-only: " + uri);
+        int format = exportFormat(uri);
+        boolean gzip = isGzip(uri);
+        long from = uri.getQueryParameter(MeasurementContract.PARAM_FROM) != null
+                ? parseLong(uri, MeasurementContract.PARAM_FROM) : Long.MIN_VALUE;
+        long to = uri.getQueryParameter(MeasurementContract.PARAM_TO) != null
+                ? parseLong(uri, MeasurementContract.PARAM_TO) : Long.MAX_VALUE;
+        File file = null;
+        try {
+            file = File.createTempFile("export", null, getContext().getCacheDir());
+            long count = new MeasurementExporter(getContext()).export(file, format, gzip, from,
+                    to);
+            Log.i(TAG, "Exported " + count + " readings");
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        } catch (IOException e) {
+            Log.w(TAG, "Export failed", e);
+            throw new FileNotFoundException("Export failed: " + e);
+        } catch (RuntimeException e) {
+            // E.g. a database error; the caller gets no file rather than a truncated one.
+            Log.e(TAG, "Export failed", e);
+            throw new FileNotFoundException("Export failed: " + e);
+        } finally {
+            if (file != null) {
+                new File(file.getPath() + ".tmp").delete();
+                file.delete();
+            }
+        }
+    }
+
+    private static int exportFormat(Uri uri) {
+        String format = uri.getQueryParameter(MeasurementContract.PARAM_FORMAT);
+        if (format == null || MeasurementContract.FORMAT_FHIR_NDJSON.equals(format)) {
+            return MeasurementExport.FORMAT_FHIR_NDJSON;
+        }
+        if (MeasurementContract.FORMAT_CSV.equals(format)) return MeasurementExport.FORMAT_CSV;
+        throw new IllegalArgumentException("Bad " + MeasurementContract.PARAM_FORMAT + " in "
+                + uri);
+    }
+
+    private static boolean isGzip(Uri uri) {
+        return Boolean.parseBoolean(uri.getQueryParameter(MeasurementContract.PARAM_GZIP));
+    }
+
+    private static Double orNull(double value) {
+        return Double.isNaN(value) ? null : Double.valueOf(value);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        if (sMatcher.match(uri) != MEASUREMENTS) {
+            throw new IllegalArgumentException("Unsupported URI: " + uri);
+        }
+        long id = mDatabase.getWritableDatabase().insert(MeasurementDatabase.TABLE, null, values);
+        if (id < 0) throw new SQLException("Failed to insert into " + uri);
+        notifyDevice(values.getAsString(Columns.DEVICE));
+        return ContentUris.withAppendedId(MeasurementContract.CONTENT_URI, id);
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (sMatcher.match(uri) != MEASUREMENTS) {
+            throw new IllegalArgumentException("Unsupported URI: " + uri);
+        }
+        SQLiteDatabase db = mDatabase.getWritableDatabase();
+        List<String> devices = new ArrayList<String>();
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues v : values) {
+                if (db.insert(MeasurementDatabase.TABLE, null, v) < 0) continue;
+                count++;
+                String device = v.getAsString(Columns.DEVICE);
+                if (!devices.contains(device)) devices.add(device);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // One notification per device instead of one per row.
+        for (String device : devices) {
+            notifyDevice(device);
+        }
+        return count;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        List<String> args = new ArrayList<String>();
+        StringBuilder where = new StringBuilder(where(uri, args));
+        if (selection != null) {
+            if (where.length() > 0) where.append(" AND ");
+            where.append('(').append(selection).append(')');
+        }
+        int count = mDatabase.getWritableDatabase().delete(MeasurementDatabase.TABLE,
+                where.length() > 0 ? where.toString() : null, concat(args, selectionArgs));
+        if (count == 0) return count;
+        if (sMatcher.match(uri) == DEVICE) {
+            notifyDevice(uri.getLastPathSegment());
+        } else {
+            // The rows may span devices; a change of the base URI reaches every device URI.
+            getContext().getContentResolver().notifyChange(MeasurementContract.CONTENT_URI, null);
+        }
+        return count;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // Readings are immutable.
+        throw new UnsupportedOperationException("Measurements cannot be updated");
+    }
+
+    /** Row values of a measurement; non-finite values are stored as NULL. */
+    static ContentValues toValues(Measurement m) {
+        ContentValues v = new ContentValues();
+        v.put(Columns.DEVICE, m.device);
+        putValue(v, Columns.SYSTOLIC, m.systolic);
+        putValue(v, Columns.DIASTOLIC, m.diastolic);
+        putValue(v, Columns.MEAN_ARTERIAL, m.meanArterial);
+        putValue(v, Columns.PULSE, m.pulse);
+        v.put(Columns.UNIT, m.unit);
+        v.put(Columns.TIME, m.time);
+        return v;
+    }
+
+    private static void putValue(ContentValues v, String column, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            v.putNull(column);
+        } else {
+            v.put(column, value);
+        }
+    }
+
+    private void notifyDevice(String device) {
+        getContext().getContentResolver().notifyChange(MeasurementContract.deviceUri(device), null);
+    }
+
+    // WHERE clause with ? placeholders for the rows named by the URI; arguments go to args.
+    private static String where(Uri uri, List<String> args) {
+        StringBuilder where = new StringBuilder();
+        switch (sMatcher.match(uri)) {
+            case MEASUREMENTS:
+                break;
+            case MEASUREMENT_ID:
+                where.append(Columns._ID).append(" = ?");
+                args.add(Long.toString(ContentUris.parseId(uri)));
+                break;
+            case DEVICE:
+                where.append(Columns.DEVICE).append(" = ?");
+                args.add(uri.getLastPathSegment());
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported URI: " + uri);
+        }
+        if (uri.getQueryParameter(MeasurementContract.PARAM_FROM) != null) {
+            if (where.length() > 0) where.append(" AND ");
+            where.append(Columns.TIME).append(" >= ?");
+            args.add(Long.toString(parseLong(uri, MeasurementContract.PARAM_FROM)));
+        }
+        if (uri.getQueryParameter(MeasurementContract.PARAM_TO) != null) {
+            if (where.length() > 0) where.append(" AND ");
+            where.append(Columns.TIME).append(" < ?");
+            args.add(Long.toString(parseLong(uri, MeasurementContract.PARAM_TO)));
+        }
+        return where.toString();
+    }
+
+    private static String[] concat(List<String> args, String[] selectionArgs) {
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                args.add(arg);
+            }
+        }
+        return args.isEmpty() ? null : args.toArray(new String[args.size()]);
+    }
+
+    private static int parseInt(Uri uri, String name, int defaultValue) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) return defaultValue;
+        try {
+            int n = Integer.parseInt(value);
+            if (n >= 0) return n;
+        } catch (NumberFormatException e) {
+            // Fall through.
+        }
+        throw new IllegalArgumentException("Bad " + name + " in " + uri);
+    }
+
+    private static long parseLong(Uri uri, String name) {
+        try {
+            return Long.parseLong(uri.getQueryParameter(name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad " + name + " in " + uri);
+        }
+    }
+}
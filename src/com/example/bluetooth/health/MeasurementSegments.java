@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Compressed columnar archive of readings: one directory per device holding immutable segment
+ * files of up to a few thousand readings each.
+ *
+ * <pre>
+ * segment := header column * 6
+ * header  := 'B' 'S' version(u8) flags(u8) count(u32) minTime(i64) maxTime(i64)
+ *            length(u32) * 6
+ * columns := time, systolic, diastolic, MAP, pulse, unit
+ * </pre>
+ * All header values are big-endian.  Times are epoch millis stored as delta-of-delta, the
+ * pressures and pulse as tenths stored as deltas, the unit as is; every entry is a zigzag
+ * varint.  Regularly spaced spot readings take about ten bytes each.  Segments are read
+ * through memory maps, so a range scan costs varint decoding rather than I/O.
+ *
+ * <p>Segment files are named <code>key-sequence.seg</code> with a per-device sequence that only
+ * grows, and are never overwritten.  Late readings, e.g. a PM-store backfill, can make
+ * segments overlap in time, so scans merge the segments by time.  A corrupt segment fails the
+ * scan with an IOException.
+ *
+ * Not tied to Android; safe for use from several threads.
+ */
+public final class MeasurementSegments {
+    /** Receives archived readings; return false to stop the scan. */
+    public interface Visitor {
+        boolean onReading(long time, double systolic, double diastolic, double meanArterial,
+                double pulse, int unit);
+    }
+
+    static final int VERSION = 1;
+    static final int HEADER_LENGTH = 48;
+    private static final int COLUMNS = 6;
+    // Stored for missing (non-finite) values.
+    private static final long NO_VALUE = Integer.MIN_VALUE;
+    private static final String SUFFIX = ".seg";
+    private static final int NO_SEQUENCE = -1;
+
+    private final File mDirectory;
+    // Segments are immutable once renamed into place, so their maps can be kept.
+    private final Map<File, MappedByteBuffer> mMaps = new HashMap<File, MappedByteBuffer>();
+
+    public MeasurementSegments(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Writes one segment from parallel arrays sorted by time.  Writing the same readings again
+     * with the same <code>key</code> is a no-op, so an interrupted archiver run can simply be
+     * repeated; any other segment gets a new file.
+     */
+    public synchronized void append(String device, long key, long[] times, double[] systolic,
+            double[] diastolic, double[] meanArterial, double[] pulse, int[] units, int count)
+            throws IOException {
+        if (count == 0) return;
+        Column[] columns = new Column[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            columns[i] = new Column(count * 2);
+        }
+        long prevTime = 0, prevDelta = 0;
+        long[] prev = new long[4];
+        for (int i = 0; i < count; i++) {
+            long delta = times[i] - prevTime;
+            columns[0].put(i < 2 ? delta : delta - prevDelta);
+            prevDelta = delta;
+            prevTime = times[i];
+            long v;
+            v = tenths(systolic[i]);
+            columns[1].put(v - prev[0]);
+            prev[0] = v;
+            v = tenths(diastolic[i]);
+            columns[2].put(v - prev[1]);
+            prev[1] = v;
+            v = tenths(meanArterial[i]);
+            columns[3].put(v - prev[2]);
+            prev[2] = v;
+            v = tenths(pulse[i]);
+            columns[4].put(v - prev[3]);
+            prev[3] = v;
+            columns[5].put(units[i]);
+        }
+
+        byte[] header = new byte[HEADER_LENGTH];
+        header[0] = 'B';
+        header[1] = 'S';
+        header[2] = VERSION;
+        putInt(header, 4, count);
+        putLong(header, 8, times[0]);
+        putLong(header, 16, times[count - 1]);
+        for (int i = 0; i < COLUMNS; i++) {
+            putInt(header, 24 + 4 * i, columns[i].mLength);
+        }
+
+        int length = HEADER_LENGTH;
+        for (Column c : columns) {
+            length += c.mLength;
+        }
+        byte[] data = Arrays.copyOf(header, length);
+        int offset = HEADER_LENGTH;
+        for (Column c : columns) {
+            System.arraycopy(c.mBytes, 0, data, offset, c.mLength);
+            offset += c.mLength;
+        }
+
+        File dir = deviceDirectory(device);
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        String prefix = String.format("%016x-", key);
+        int sequence = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File existing : files) {
+                String name = existing.getName();
+                if (!name.endsWith(SUFFIX)) continue;
+                sequence = Math.max(sequence, sequence(name) + 1);
+                if ((name.startsWith(prefix) || name.equals(prefix.substring(0, 16) + SUFFIX))
+                        && hasContent(existing, data)) {
+                    return;
+                }
+            }
+        }
+        File file = new File(dir, String.format("%s%08x%s", prefix, sequence, SUFFIX));
+        if (file.exists()) throw new IOException("Segment exists: " + file);
+        File tmp = new File(dir, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot rename " + tmp);
+        }
+    }
+
+    // Sequence of a segment file name, NO_SEQUENCE for names from before sequences.
+    private static int sequence(String name) {
+        int dash = name.indexOf('-');
+        if (dash < 0) return NO_SEQUENCE;
+        try {
+            return (int) Long.parseLong(name.substring(dash + 1, name.length() - SUFFIX.length()),
+                    16);
+        } catch (NumberFormatException e) {
+            return NO_SEQUENCE;
+        }
+    }
+
+    private static boolean hasContent(File file, byte[] data) throws IOException {
+        if (file.length() != data.length) return false;
+        byte[] existing = new byte[data.length];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int n = 0;
+            while (n < existing.length) {
+                int r = in.read(existing, n, existing.length - n);
+                if (r < 0) return false;
+                n += r;
+            }
+        } finally {
+            in.close();
+        }
+        return Arrays.equals(existing, data);
+    }
+
+    /**
+     * Visits the archived readings of a device with <code>from <= time < to</code> in time
+     * order; readings with the same time come in the order they were archived.
+     *
+     * @throws IOException if a segment is corrupt.
+     */
+    public void scan(String device, long from, long to, Visitor visitor) throws IOException {
+        File[] files = deviceDirectory(device).listFiles();
+        if (files == null) return;
+        List<Cursor> segments = new ArrayList<Cursor>();
+        for (File file : files) {
+            if (!file.getName().endsWith(SUFFIX)) continue;
+            Cursor c = new Cursor(file, map(file), sequence(file.getName()));
+            if (c.mMaxTime >= from && c.mMinTime < to) segments.add(c);
+        }
+        Collections.sort(segments, Cursor.BY_START);
+        // Segments join the merge only once the scan reaches their first reading, so mostly
+        // a single segment is being read.
+        PriorityQueue<Cursor> merge = new PriorityQueue<Cursor>(Math.max(1, segments.size()));
+        int next = 0;
+        while (true) {
+            while (next < segments.size()
+                    && (merge.isEmpty() || segments.get(next).mMinTime <= merge.peek().mTime)) {
+                Cursor c = segments.get(next++);
+                if (c.seek(from)) merge.add(c);
+            }
+            Cursor c = merge.poll();
+            if (c == null || c.mTime >= to) return;
+            if (!visitor.onReading(c.mTime, value(c.mSystolic), value(c.mDiastolic),
+                    value(c.mMeanArterial), value(c.mPulse), c.mUnit)) {
+                return;
+            }
+            if (c.next()) merge.add(c);
+        }
+    }
+
+    /** Devices with archived readings. */
+    public List<String> devices() {
+        List<String> devices = new ArrayList<String>();
+        File[] dirs = mDirectory.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                if (dir.isDirectory()) devices.add(dir.getName().replace('-', ':'));
+            }
+        }
+        return devices;
+    }
+
+    /** Total bytes used by a device's segments. */
+    public long size(String device) {
+        File[] files = deviceDirectory(device).listFiles();
+        long size = 0;
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    // Reads the readings of one segment in order, validating it on the way.
+    private static final class Cursor implements Comparable<Cursor> {
+        static final Comparator<Cursor> BY_START = new Comparator<Cursor>() {
+            public int compare(Cursor a, Cursor b) {
+                if (a.mMinTime != b.mMinTime) return a.mMinTime < b.mMinTime ? -1 : 1;
+                return a.mSequence - b.mSequence;
+            }
+        };
+
+        final File mFile;
+        final MappedByteBuffer mBuffer;
+        final int mSequence;
+        final int mCount;
+        final long mMinTime;
+        final long mMaxTime;
+        // Read position and end of each column.
+        private final int[] mPos = new int[COLUMNS];
+        private final int[] mEnd = new int[COLUMNS];
+        private int mIndex;
+        private long mDelta;
+        long mTime, mSystolic, mDiastolic, mMeanArterial, mPulse;
+        int mUnit;
+
+        Cursor(File file, MappedByteBuffer b, int sequence) throws IOException {
+            mFile = file;
+            mBuffer = b;
+            mSequence = sequence;
+            if (b.limit() < HEADER_LENGTH || b.get(0) != 'B' || b.get(1) != 'S'
+                    || b.get(2) != VERSION) {
+                throw new IOException("Not a segment: " + file);
+            }
+            mCount = b.getInt(4);
+            mMinTime = b.getLong(8);
+            mMaxTime = b.getLong(16);
+            long p = HEADER_LENGTH;
+            for (int i = 0; i < COLUMNS; i++) {
+                int length = b.getInt(24 + 4 * i);
+                // Every entry takes at least one byte in every column.
+                if (length < 0 || length < mCount) throw corrupt();
+                mPos[i] = (int) p;
+                p += length;
+                if (p > b.limit()) throw corrupt();
+                mEnd[i] = (int) p;
+            }
+            if (mCount < 0 || mMinTime > mMaxTime) throw corrupt();
+        }
+
+        // Moves to the first reading at or after from; false if there is none.
+        boolean seek(long from) throws IOException {
+            while (next()) {
+                if (mTime >= from) return true;
+            }
+            return false;
+        }
+
+        // Moves to the next reading; false at the end of the segment.
+        boolean next() throws IOException {
+            if (mIndex == mCount) return false;
+            long d = readVarint(0);
+            mDelta = mIndex < 2 ? d : mDelta + d;
+            mTime += mDelta;
+            mSystolic += readVarint(1);
+            mDiastolic += readVarint(2);
+            mMeanArterial += readVarint(3);
+            mPulse += readVarint(4);
+            mUnit = (int) readVarint(5);
+            mIndex++;
+            return true;
+        }
+
+        public int compareTo(Cursor other) {
+            if (mTime != other.mTime) return mTime < other.mTime ? -1 : 1;
+            return mSequence - other.mSequence;
+        }
+
+        // Decodes the zigzag varint at the column's position and advances it.
+        private long readVarint(int column) throws IOException {
+            int p = mPos[column];
+            int end = mEnd[column];
+            long v = 0;
+            int shift = 0;
+            int x;
+            do {
+                if (p >= end || shift > 63) throw corrupt();
+                x = mBuffer.get(p++);
+                v |= (long) (x & 0x7F) << shift;
+                shift += 7;
+            } while ((x & 0x80) != 0);
+            mPos[column] = p;
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private IOException corrupt() {
+            return new IOException("Corrupt segment: " + mFile);
+        }
+    }
+
+    private MappedByteBuffer map(File file) throws IOException {
+        synchronized (mMaps) {
+            MappedByteBuffer b = mMaps.get(file);
+            if (b == null) {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    b = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                } finally {
+                    // The mapping stays valid after the channel is closed.
+                    raf.close();
+                }
+                mMaps.put(file, b);
+            }
+            // Absolute reads only, so one buffer can be shared between scans.
+            return b;
+        }
+    }
+
+    private File deviceDirectory(String device) {
+        return new File(mDirectory, device.replace(':', '-'));
+    }
+
+    private static long tenths(double v) {
+        if (Double.isNaN(v) || Double.isInfinite(v)) return NO_VALUE;
+        return Math.round(v * 10);
+    }
+
+    private static double value(long tenths) {
+        return tenths == NO_VALUE ? Double.NaN : tenths / 10.0;
+    }
+
+    private static void putInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >> 24);
+        b[offset + 1] = (byte) (v >> 16);
+        b[offset + 2] = (byte) (v >> 8);
+        b[offset + 3] = (byte) v;
+    }
+
+    private static void putLong(byte[] b, int offset, long v) {
+        putInt(b, offset, (int) (v >> 32));
+        putInt(b, offset + 4, (int) v);
+    }
+
+    // Growable zigzag varint column.
+    private static final class Column {
+        byte[] mBytes;
+        int mLength;
+
+        Column(int capacity) {
+            mBytes = new byte[Math.max(capacity, 16)];
+        }
+
+        void put(long v) {
+            if (mLength + 10 > mBytes.length) mBytes = Arrays.copyOf(mBytes, mBytes.length * 2);
+            long z = (v << 1) ^ (v >> 63);
+            while ((z & ~0x7FL) != 0) {
+                mBytes[mLength++] = (byte) ((z & 0x7F) | 0x80);
+                z >>>= 7;
+            }
+            mBytes[mLength++] = (byte) z;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination for decoded measurements.  Implementations are selected through the
+ * <code>sink_type</code> configuration resource, see {@link MeasurementSinks}.
+ *
+ * Sinks are invoked from a background thread and may block.
+ */
+public interface MeasurementSink {
+    /**
+     * Delivers a batch of measurements.  Either the whole batch is accepted or an
+     * {@link IOException} is thrown and the caller may retry the batch later.
+     */
+    void send(List<Measurement> batch) throws IOException;
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Creates the {@link MeasurementSink} selected in <code>res/values/config.xml</code>.
+ *
+ * <ul>
+ * <li><code>rest_json</code> - JSON POST to <code>hub_url</code>.</li>
+ * <li><code>binary</code> - length-prefixed binary batch POST to <code>hub_url</code>.</li>
+ * <li><code>file</code> - JSON lines appended to <code>sink_file</code> in the app files dir.</li>
+ * </ul>
+ *
+ * The hub API key is not part of the sources.  The build copies <code>hub.api.key</code> from
+ * local.properties into <code>assets/hub.properties</code>, and it is added to
+ * <code>hub_url</code> as the <code>apiKey</code> parameter.
+ */
+public final class MeasurementSinks {
+    private static final String TAG = "bp";
+
+    public static final String TYPE_REST_JSON = "rest_json";
+    public static final String TYPE_BINARY = "binary";
+    public static final String TYPE_FILE = "file";
+
+    static final String HUB_PROPERTIES = "hub.properties";
+    static final String KEY_HUB_API_KEY = "hub.api.key";
+
+    private MeasurementSinks() {}
+
+    public static MeasurementSink fromConfig(Context context) {
+        Resources res = context.getResources();
+        String type = res.getString(R.string.sink_type);
+        if (TYPE_BINARY.equals(type)) {
+            return new BinaryBatchSink(hubUrl(context));
+        } else if (TYPE_FILE.equals(type)) {
+            return new LocalFileSink(
+                    new File(context.getFilesDir(), res.getString(R.string.sink_file)));
+        } else if (TYPE_REST_JSON.equals(type)) {
+            return new RestJsonSink(hubUrl(context));
+        }
+        throw new IllegalArgumentException("Unknown sink_type: " + type);
+    }
+
+    // hub_url with the API key from the build, if there is one.
+    static String hubUrl(Context context) {
+        String url = context.getResources().getString(R.string.hub_url);
+        Properties properties = new Properties();
+        try {
+            InputStream in = context.getAssets().open(HUB_PROPERTIES);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "No " + HUB_PROPERTIES + ", uploading without an API key");
+            return url;
+        }
+        String key = properties.getProperty(KEY_HUB_API_KEY, "");
+        if (key.length() == 0) return url;
+        return Uri.parse(url).buildUpon().appendQueryParameter("apiKey", key).build().toString();
+    }
+
+    /** Whether the configured sink uploads over the network. */
+    public static boolean needsNetwork(Context context) {
+        return !TYPE_FILE.equals(context.getResources().getString(R.string.sink_type));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Incremental statistics over the measurement stream, kept per device.
+ *
+ * Every reading updates a set of {@link RollingWindow}s in O(1), so summaries are available
+ * immediately without re-reading the history.  Pressures are kept in mmHg regardless of the
+ * unit the agent reported in; values the agent reported as NaN / NRes are skipped.  Morning
+ * (04:00-11:59) and evening (18:00-23:59) windows only receive readings taken in those hours.
+ */
+public final class MeasurementStats {
+    public static final int DEFAULT_WINDOW = 30;
+
+    private static MeasurementStats sInstance;
+
+    private final int mWindow;
+    private final TimeZone mZone = TimeZone.getDefault();
+    private final Map<String, DeviceStats> mDevices = new HashMap<String, DeviceStats>();
+
+    /**
+     * Immutable snapshot of the windows for one device.  Blood pressure values are in mmHg,
+     * trends are in mmHg (or bpm) per reading.
+     */
+    public static final class Summary {
+        public final String device;
+        // Time of the newest reading included, epoch millis.
+        public final long time;
+        public final int count;
+        public final double meanSystolic, meanDiastolic, meanPulse;
+        public final double minSystolic, maxSystolic;
+        public final double minDiastolic, maxDiastolic;
+        public final double trendSystolic, trendDiastolic;
+        public final double morningSystolic, morningDiastolic;
+        public final double eveningSystolic, eveningDiastolic;
+
+        Summary(String device, DeviceStats s) {
+            this.device = device;
+            time = s.time;
+            count = s.systolic.size();
+            meanSystolic = s.systolic.mean();
+            meanDiastolic = s.diastolic.mean();
+            meanPulse = s.pulse.mean();
+            minSystolic = s.systolic.min();
+            maxSystolic = s.systolic.max();
+            minDiastolic = s.diastolic.min();
+            maxDiastolic = s.diastolic.max();
+            trendSystolic = s.systolic.trend();
+            trendDiastolic = s.diastolic.trend();
+            morningSystolic = s.morningSystolic.mean();
+            morningDiastolic = s.morningDiastolic.mean();
+            eveningSystolic = s.eveningSystolic.mean();
+            eveningDiastolic = s.eveningDiastolic.mean();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("avg %.0f/%.0f pulse %.0f (n=%d), range %.0f-%.0f/%.0f-%.0f, "
+                    + "trend %+.1f/%+.1f per reading", meanSystolic, meanDiastolic, meanPulse,
+                    count, minSystolic, maxSystolic, minDiastolic, maxDiastolic, trendSystolic,
+                    trendDiastolic);
+        }
+    }
+
+    private static final class DeviceStats {
+        final RollingWindow systolic, diastolic, pulse;
+        final RollingWindow morningSystolic, morningDiastolic;
+        final RollingWindow eveningSystolic, eveningDiastolic;
+        long time;
+
+        DeviceStats(int window) {
+            systolic = new RollingWindow(window);
+            diastolic = new RollingWindow(window);
+            pulse = new RollingWindow(window);
+            morningSystolic = new RollingWindow(window);
+            morningDiastolic = new RollingWindow(window);
+            eveningSystolic = new RollingWindow(window);
+            eveningDiastolic = new RollingWindow(window);
+        }
+    }
+
+    public static synchronized MeasurementStats getInstance() {
+        if (sInstance == null) {
+            sInstance = new MeasurementStats(DEFAULT_WINDOW);
+        }
+        return sInstance;
+    }
+
+    public MeasurementStats(int window) {
+        mWindow = window;
+    }
+
+    /** Adds a reading and returns the updated summary for its device. */
+    public synchronized Summary add(Measurement m) {
+        DeviceStats s = mDevices.get(m.device);
+        if (s == null) {
+            s = new DeviceStats(mWindow);
+            mDevices.put(m.device, s);
+        }
+        s.time = Math.max(s.time, m.time);
+        double scale = m.toMmHg();
+        double systolic = m.systolic * scale;
+        double diastolic = m.diastolic * scale;
+        if (isValue(m.pulse)) s.pulse.add(m.pulse);
+        if (isValue(systolic) && isValue(diastolic)) {
+            s.systolic.add(systolic);
+            s.diastolic.add(diastolic);
+            int hour = TimeCodec.hourOfDay(m.time, mZone);
+            if (hour >= 4 && hour < 12) {
+                s.morningSystolic.add(systolic);
+                s.morningDiastolic.add(diastolic);
+            } else if (hour >= 18) {
+                s.eveningSystolic.add(systolic);
+                s.eveningDiastolic.add(diastolic);
+            }
+        }
+        return new Summary(m.device, s);
+    }
+
+    private static boolean isValue(double v) {
+        return !Double.isNaN(v) && !Double.isInfinite(v);
+    }
+
+    /** Returns the current summary for the device, or null if no reading was seen. */
+    public synchronized Summary summary(String device) {
+        DeviceStats s = mDevices.get(device);
+        return s == null ? null : new Summary(device, s);
+    }
+}
@@ -0,0 +1,554 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.util.Arrays;
+
+/**
+ * ISO/IEEE 11073-10101 nomenclature used by the 104xx device specializations this manager
+ * supports, plus the 20601 object classes, attributes, actions and notifications it decodes.
+ * Each constant has an entry in the table in the static initializer, which is maintained by
+ * hand; add a code in both places rather than as a literal elsewhere.
+ *
+ * <p>Lookups go through an {@link IntIntMap} keyed by {@link #key} and read from parallel
+ * arrays, so decoders, the UI and the serializers can resolve names and unit symbols on the
+ * data path without allocating.
+ */
+public final class Nomenclature {
+    // Code partitions, the high half of a 32 bit OID-type.
+    public static final int MDC_PART_OBJ = 1;
+    public static final int MDC_PART_SCADA = 2;
+    public static final int MDC_PART_EVT = 3;
+    public static final int MDC_PART_DIM = 4;
+    public static final int MDC_PART_INFRA = 8;
+    public static final int MDC_PART_PHD_DM = 128;
+
+    // Object classes (MDC_PART_OBJ).
+    public static final int MDC_MOC_VMO_METRIC = 4;
+    public static final int MDC_MOC_VMO_METRIC_ENUM = 5;
+    public static final int MDC_MOC_VMO_METRIC_NU = 6;
+    public static final int MDC_MOC_VMO_METRIC_SA_RT = 9;
+    public static final int MDC_MOC_SCAN = 16;
+    public static final int MDC_MOC_SCAN_CFG = 17;
+    public static final int MDC_MOC_SCAN_CFG_EPI = 18;
+    public static final int MDC_MOC_SCAN_CFG_PERI = 19;
+    public static final int MDC_MOC_VMS_MDS_SIMP = 37;
+    public static final int MDC_MOC_VMO_PMSTORE = 61;
+    public static final int MDC_MOC_PM_SEGMENT = 62;
+
+    // Attributes (MDC_PART_OBJ).
+    public static final int MDC_ATTR_CONFIRM_MODE = 2323;
+    public static final int MDC_ATTR_CONFIRM_TIMEOUT = 2324;
+    public static final int MDC_ATTR_ID_HANDLE = 2337;
+    public static final int MDC_ATTR_ID_INSTNO = 2338;
+    public static final int MDC_ATTR_ID_LABEL_STRING = 2343;
+    public static final int MDC_ATTR_ID_MODEL = 2344;
+    public static final int MDC_ATTR_ID_PHYSIO = 2347;
+    public static final int MDC_ATTR_ID_PROD_SPECN = 2349;
+    public static final int MDC_ATTR_ID_TYPE = 2351;
+    public static final int MDC_ATTR_METRIC_STORE_CAPAC_CNT = 2369;
+    public static final int MDC_ATTR_METRIC_STORE_SAMPLE_ALG = 2371;
+    public static final int MDC_ATTR_METRIC_STORE_USAGE_CNT = 2372;
+    public static final int MDC_ATTR_MSMT_STAT = 2375;
+    public static final int MDC_ATTR_NU_ACCUR_MSMT = 2378;
+    public static final int MDC_ATTR_NU_CMPD_VAL_OBS = 2379;
+    public static final int MDC_ATTR_NU_VAL_OBS = 2384;
+    public static final int MDC_ATTR_NUM_SEG = 2385;
+    public static final int MDC_ATTR_OP_STAT = 2387;
+    public static final int MDC_ATTR_POWER_STAT = 2389;
+    public static final int MDC_ATTR_SA_SPECN = 2413;
+    public static final int MDC_ATTR_SCALE_SPECN_I16 = 2415;
+    public static final int MDC_ATTR_SCALE_SPECN_I32 = 2416;
+    public static final int MDC_ATTR_SCALE_SPECN_I8 = 2417;
+    public static final int MDC_ATTR_SCAN_REP_PD = 2421;
+    public static final int MDC_ATTR_SEG_USAGE_CNT = 2427;
+    public static final int MDC_ATTR_SYS_ID = 2436;
+    public static final int MDC_ATTR_SYS_TYPE = 2438;
+    public static final int MDC_ATTR_TIME_ABS = 2439;
+    public static final int MDC_ATTR_TIME_BATT_REMAIN = 2440;
+    public static final int MDC_ATTR_TIME_END_SEG = 2442;
+    public static final int MDC_ATTR_TIME_PD_SAMP = 2445;
+    public static final int MDC_ATTR_TIME_REL = 2447;
+    public static final int MDC_ATTR_TIME_STAMP_ABS = 2448;
+    public static final int MDC_ATTR_TIME_STAMP_REL = 2449;
+    public static final int MDC_ATTR_TIME_START_SEG = 2450;
+    public static final int MDC_ATTR_TX_WIND = 2453;
+    public static final int MDC_ATTR_UNIT_CODE = 2454;
+    public static final int MDC_ATTR_UNIT_LABEL_STRING = 2457;
+    public static final int MDC_ATTR_VAL_BATT_CHARGE = 2460;
+    public static final int MDC_ATTR_VAL_ENUM_OBS = 2462;
+    public static final int MDC_ATTR_TIME_REL_HI_RES = 2536;
+    public static final int MDC_ATTR_TIME_STAMP_REL_HI_RES = 2537;
+    public static final int MDC_ATTR_DEV_CONFIG_ID = 2628;
+    public static final int MDC_ATTR_MDS_TIME_INFO = 2629;
+    public static final int MDC_ATTR_METRIC_SPEC_SMALL = 2630;
+    public static final int MDC_ATTR_SOURCE_HANDLE_REF = 2631;
+    public static final int MDC_ATTR_SIMP_SA_OBS_VAL = 2632;
+    public static final int MDC_ATTR_ENUM_OBS_VAL_SIMP_OID = 2633;
+    public static final int MDC_ATTR_ENUM_OBS_VAL_SIMP_STR = 2634;
+    public static final int MDC_ATTR_REG_CERT_DATA_LIST = 2635;
+    public static final int MDC_ATTR_NU_VAL_OBS_BASIC = 2636;
+    public static final int MDC_ATTR_PM_STORE_CAPAB = 2637;
+    public static final int MDC_ATTR_PM_SEG_MAP = 2638;
+    public static final int MDC_ATTR_PM_SEG_PERSON_ID = 2639;
+    public static final int MDC_ATTR_SEG_STATS = 2640;
+    public static final int MDC_ATTR_SEG_FIXED_DATA = 2641;
+    public static final int MDC_ATTR_SCAN_HANDLE_ATTR_VAL_MAP = 2643;
+    public static final int MDC_ATTR_SCAN_REP_PD_MIN = 2644;
+    public static final int MDC_ATTR_ATTRIBUTE_VAL_MAP = 2645;
+    public static final int MDC_ATTR_NU_VAL_OBS_SIMP = 2646;
+    public static final int MDC_ATTR_PM_STORE_LABEL_STRING = 2647;
+    public static final int MDC_ATTR_PM_SEG_LABEL_STRING = 2648;
+    public static final int MDC_ATTR_TIME_PD_MSMT_ACTIVE = 2649;
+    public static final int MDC_ATTR_SYS_TYPE_SPEC_LIST = 2650;
+    public static final int MDC_ATTR_METRIC_ID_PART = 2655;
+    public static final int MDC_ATTR_ENUM_OBS_VAL_PART = 2656;
+    public static final int MDC_ATTR_SUPPLEMENTAL_TYPES = 2657;
+    public static final int MDC_ATTR_TIME_ABS_ADJUST = 2658;
+    public static final int MDC_ATTR_CLEAR_TIMEOUT = 2659;
+    public static final int MDC_ATTR_TRANSFER_TIMEOUT = 2660;
+    public static final int MDC_ATTR_ENUM_OBS_VAL_SIMP_BIT_STR = 2661;
+    public static final int MDC_ATTR_ENUM_OBS_VAL_BASIC_BIT_STR = 2662;
+    public static final int MDC_ATTR_METRIC_STRUCT_SMALL = 2675;
+    public static final int MDC_ATTR_NU_CMPD_VAL_OBS_SIMP = 2676;
+    public static final int MDC_ATTR_NU_CMPD_VAL_OBS_BASIC = 2677;
+    public static final int MDC_ATTR_ID_PHYSIO_LIST = 2678;
+    public static final int MDC_ATTR_SCAN_HANDLE_LIST = 2679;
+
+    // Actions (MDC_PART_OBJ).
+    public static final int MDC_ACT_SEG_CLR = 3084;
+    public static final int MDC_ACT_SEG_GET_INFO = 3085;
+    public static final int MDC_ACT_SET_TIME = 3095;
+    public static final int MDC_ACT_DATA_REQUEST = 3099;
+    public static final int MDC_ACT_SEG_TRIG_XFER = 3100;
+
+    // Notifications (MDC_PART_OBJ).
+    public static final int MDC_NOTI_CONFIG = 3356;
+    public static final int MDC_NOTI_SCAN_REPORT_FIXED = 3357;
+    public static final int MDC_NOTI_SCAN_REPORT_VAR = 3358;
+    public static final int MDC_NOTI_SCAN_REPORT_MP_FIXED = 3359;
+    public static final int MDC_NOTI_SCAN_REPORT_MP_VAR = 3360;
+    public static final int MDC_NOTI_SEGMENT_DATA = 3361;
+    public static final int MDC_NOTI_UNBUF_SCAN_REPORT_VAR = 3362;
+    public static final int MDC_NOTI_UNBUF_SCAN_REPORT_FIXED = 3363;
+    public static final int MDC_NOTI_UNBUF_SCAN_REPORT_GROUPED = 3364;
+    public static final int MDC_NOTI_UNBUF_SCAN_REPORT_MP_VAR = 3365;
+    public static final int MDC_NOTI_UNBUF_SCAN_REPORT_MP_FIXED = 3366;
+    public static final int MDC_NOTI_UNBUF_SCAN_REPORT_MP_GROUPED = 3367;
+    public static final int MDC_NOTI_BUF_SCAN_REPORT_VAR = 3368;
+    public static final int MDC_NOTI_BUF_SCAN_REPORT_FIXED = 3369;
+    public static final int MDC_NOTI_BUF_SCAN_REPORT_GROUPED = 3370;
+    public static final int MDC_NOTI_BUF_SCAN_REPORT_MP_VAR = 3371;
+    public static final int MDC_NOTI_BUF_SCAN_REPORT_MP_FIXED = 3372;
+    public static final int MDC_NOTI_BUF_SCAN_REPORT_MP_GROUPED = 3373;
+
+    // Metrics (MDC_PART_SCADA).
+    public static final int MDC_ECG_HEART_RATE = 16770;
+    public static final int MDC_PRESS_BLD_NONINV = 18948;
+    public static final int MDC_PRESS_BLD_NONINV_SYS = 18949;
+    public static final int MDC_PRESS_BLD_NONINV_DIA = 18950;
+    public static final int MDC_PRESS_BLD_NONINV_MEAN = 18951;
+    public static final int MDC_PULS_OXIM_PULS_RATE = 18458;
+    public static final int MDC_PULS_RATE_NON_INV = 18474;
+    public static final int MDC_TEMP_BODY = 19292;
+    public static final int MDC_PULS_OXIM_PLETH = 19380;
+    public static final int MDC_PULS_OXIM_SAT_O2 = 19384;
+    public static final int MDC_CONC_GLU_CAPILLARY_WHOLEBLOOD = 29112;
+    public static final int MDC_CONC_GLU_CAPILLARY_PLASMA = 29116;
+    public static final int MDC_CONC_GLU_VENOUS_WHOLEBLOOD = 29120;
+    public static final int MDC_CONC_GLU_VENOUS_PLASMA = 29124;
+    public static final int MDC_CONC_GLU_ARTERIAL_WHOLEBLOOD = 29128;
+    public static final int MDC_CONC_GLU_ARTERIAL_PLASMA = 29132;
+    public static final int MDC_CONC_GLU_CONTROL = 29136;
+    public static final int MDC_CONC_GLU_ISF = 29140;
+    public static final int MDC_CONC_HBA1C = 29148;
+    public static final int MDC_MASS_BODY_ACTUAL = 57664;
+    public static final int MDC_LEN_BODY_ACTUAL = 57668;
+    public static final int MDC_RATIO_MASS_BODY_LEN_SQ = 57680;
+
+    // Units (MDC_PART_DIM).
+    public static final int MDC_DIM_DIMLESS = 512;
+    public static final int MDC_DIM_PERCENT = 544;
+    public static final int MDC_DIM_CENTI_M = 1297;
+    public static final int MDC_DIM_INCH = 1376;
+    public static final int MDC_DIM_X_G = 1728;
+    public static final int MDC_DIM_KILO_G = 1731;
+    public static final int MDC_DIM_LB = 1760;
+    public static final int MDC_DIM_KG_PER_M_SQ = 1952;
+    public static final int MDC_DIM_MILLI_G_PER_DL = 2130;
+    public static final int MDC_DIM_SEC = 2176;
+    public static final int MDC_DIM_MIN = 2208;
+    public static final int MDC_DIM_HR = 2240;
+    public static final int MDC_DIM_DAY = 2272;
+    public static final int MDC_DIM_BEAT_PER_MIN = 2720;
+    public static final int MDC_DIM_RESP_PER_MIN = 2784;
+    public static final int MDC_DIM_KILO_PASCAL = 3843;
+    public static final int MDC_DIM_MMHG = 3872;
+    public static final int MDC_DIM_MILLI_VOLT = 4274;
+    public static final int MDC_DIM_FAHR = 4416;
+    public static final int MDC_DIM_MILLI_MOLE_PER_L = 4722;
+    public static final int MDC_DIM_DEGC = 6048;
+
+    // Device specializations (MDC_PART_INFRA).
+    public static final int MDC_DEV_SPEC_PROFILE_PULS_OXIM = 4100;
+    public static final int MDC_DEV_SPEC_PROFILE_MIN_ECG = 4102;
+    public static final int MDC_DEV_SPEC_PROFILE_BPM = 4103;
+    public static final int MDC_DEV_SPEC_PROFILE_TEMP = 4104;
+    public static final int MDC_DEV_SPEC_PROFILE_RESP_RATE = 4109;
+    public static final int MDC_DEV_SPEC_PROFILE_SCALE = 4111;
+    public static final int MDC_DEV_SPEC_PROFILE_GLUCOSE = 4113;
+    public static final int MDC_DEV_SPEC_PROFILE_COAG = 4114;
+    public static final int MDC_DEV_SPEC_PROFILE_INSULIN_PUMP = 4115;
+    public static final int MDC_DEV_SPEC_PROFILE_BCA = 4116;
+    public static final int MDC_DEV_SPEC_PROFILE_PEAK_FLOW = 4117;
+    public static final int MDC_DEV_SPEC_PROFILE_SABTE = 4120;
+    public static final int MDC_DEV_SPEC_PROFILE_HF_CARDIO = 4137;
+    public static final int MDC_DEV_SPEC_PROFILE_HF_STRENGTH = 4138;
+    public static final int MDC_DEV_SPEC_PROFILE_AI_ACTIVITY_HUB = 4167;
+    public static final int MDC_DEV_SPEC_PROFILE_AI_MED_MINDER = 4168;
+
+    // Sized by the entries below; add() grows the arrays as needed.
+    private static String[] sNames = new String[64];
+    private static String[] sLabels = new String[64];
+    private static String[] sSymbols = new String[64];
+    private static final IntIntMap sIndex = new IntIntMap(64);
+    private static int sCount;
+
+    static {
+        add(MDC_PART_OBJ, MDC_MOC_VMO_METRIC, "MDC_MOC_VMO_METRIC", "Metric", null);
+        add(MDC_PART_OBJ, MDC_MOC_VMO_METRIC_ENUM, "MDC_MOC_VMO_METRIC_ENUM", "Enumeration", null);
+        add(MDC_PART_OBJ, MDC_MOC_VMO_METRIC_NU, "MDC_MOC_VMO_METRIC_NU", "Numeric", null);
+        add(MDC_PART_OBJ, MDC_MOC_VMO_METRIC_SA_RT, "MDC_MOC_VMO_METRIC_SA_RT",
+                "Real-time sample array", null);
+        add(MDC_PART_OBJ, MDC_MOC_SCAN, "MDC_MOC_SCAN", "Scanner", null);
+        add(MDC_PART_OBJ, MDC_MOC_SCAN_CFG, "MDC_MOC_SCAN_CFG", "Configurable scanner", null);
+        add(MDC_PART_OBJ, MDC_MOC_SCAN_CFG_EPI, "MDC_MOC_SCAN_CFG_EPI", "Episodic scanner", null);
+        add(MDC_PART_OBJ, MDC_MOC_SCAN_CFG_PERI, "MDC_MOC_SCAN_CFG_PERI", "Periodic scanner", null);
+        add(MDC_PART_OBJ, MDC_MOC_VMS_MDS_SIMP, "MDC_MOC_VMS_MDS_SIMP", "MDS", null);
+        add(MDC_PART_OBJ, MDC_MOC_VMO_PMSTORE, "MDC_MOC_VMO_PMSTORE", "PM-store", null);
+        add(MDC_PART_OBJ, MDC_MOC_PM_SEGMENT, "MDC_MOC_PM_SEGMENT", "PM-segment", null);
+        add(MDC_PART_OBJ, MDC_ATTR_CONFIRM_MODE, "MDC_ATTR_CONFIRM_MODE", "Confirm mode", null);
+        add(MDC_PART_OBJ, MDC_ATTR_CONFIRM_TIMEOUT, "MDC_ATTR_CONFIRM_TIMEOUT",
+                "Confirm timeout", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ID_HANDLE, "MDC_ATTR_ID_HANDLE", "Handle", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ID_INSTNO, "MDC_ATTR_ID_INSTNO", "Instance number", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ID_LABEL_STRING, "MDC_ATTR_ID_LABEL_STRING", "Label", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ID_MODEL, "MDC_ATTR_ID_MODEL", "Model", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ID_PHYSIO, "MDC_ATTR_ID_PHYSIO", "Physiological id", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ID_PROD_SPECN, "MDC_ATTR_ID_PROD_SPECN",
+                "Production specification", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ID_TYPE, "MDC_ATTR_ID_TYPE", "Type", null);
+        add(MDC_PART_OBJ, MDC_ATTR_METRIC_STORE_CAPAC_CNT, "MDC_ATTR_METRIC_STORE_CAPAC_CNT",
+                "Store capacity", null);
+        add(MDC_PART_OBJ, MDC_ATTR_METRIC_STORE_SAMPLE_ALG, "MDC_ATTR_METRIC_STORE_SAMPLE_ALG",
+                "Store sample algorithm", null);
+        add(MDC_PART_OBJ, MDC_ATTR_METRIC_STORE_USAGE_CNT, "MDC_ATTR_METRIC_STORE_USAGE_CNT",
+                "Store usage", null);
+        add(MDC_PART_OBJ, MDC_ATTR_MSMT_STAT, "MDC_ATTR_MSMT_STAT", "Measurement status", null);
+        add(MDC_PART_OBJ, MDC_ATTR_NU_ACCUR_MSMT, "MDC_ATTR_NU_ACCUR_MSMT", "Accuracy", null);
+        add(MDC_PART_OBJ, MDC_ATTR_NU_CMPD_VAL_OBS, "MDC_ATTR_NU_CMPD_VAL_OBS",
+                "Compound observed value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_NU_VAL_OBS, "MDC_ATTR_NU_VAL_OBS", "Observed value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_NUM_SEG, "MDC_ATTR_NUM_SEG", "Number of segments", null);
+        add(MDC_PART_OBJ, MDC_ATTR_OP_STAT, "MDC_ATTR_OP_STAT", "Operational state", null);
+        add(MDC_PART_OBJ, MDC_ATTR_POWER_STAT, "MDC_ATTR_POWER_STAT", "Power status", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SA_SPECN, "MDC_ATTR_SA_SPECN",
+                "Sample array specification", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SCALE_SPECN_I16, "MDC_ATTR_SCALE_SPECN_I16",
+                "Scale and range (16 bit)", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SCALE_SPECN_I32, "MDC_ATTR_SCALE_SPECN_I32",
+                "Scale and range (32 bit)", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SCALE_SPECN_I8, "MDC_ATTR_SCALE_SPECN_I8",
+                "Scale and range (8 bit)", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SCAN_REP_PD, "MDC_ATTR_SCAN_REP_PD", "Reporting interval", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SEG_USAGE_CNT, "MDC_ATTR_SEG_USAGE_CNT", "Segment usage", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SYS_ID, "MDC_ATTR_SYS_ID", "System id", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SYS_TYPE, "MDC_ATTR_SYS_TYPE", "System type", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_ABS, "MDC_ATTR_TIME_ABS", "Absolute time", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_BATT_REMAIN, "MDC_ATTR_TIME_BATT_REMAIN",
+                "Remaining battery time", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_END_SEG, "MDC_ATTR_TIME_END_SEG", "Segment end time", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_PD_SAMP, "MDC_ATTR_TIME_PD_SAMP", "Sample period", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_REL, "MDC_ATTR_TIME_REL", "Relative time", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_STAMP_ABS, "MDC_ATTR_TIME_STAMP_ABS",
+                "Absolute time stamp", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_STAMP_REL, "MDC_ATTR_TIME_STAMP_REL",
+                "Relative time stamp", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_START_SEG, "MDC_ATTR_TIME_START_SEG",
+                "Segment start time", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TX_WIND, "MDC_ATTR_TX_WIND", "Transmit window", null);
+        add(MDC_PART_OBJ, MDC_ATTR_UNIT_CODE, "MDC_ATTR_UNIT_CODE", "Unit code", null);
+        add(MDC_PART_OBJ, MDC_ATTR_UNIT_LABEL_STRING, "MDC_ATTR_UNIT_LABEL_STRING",
+                "Unit label", null);
+        add(MDC_PART_OBJ, MDC_ATTR_VAL_BATT_CHARGE, "MDC_ATTR_VAL_BATT_CHARGE",
+                "Battery level", null);
+        add(MDC_PART_OBJ, MDC_ATTR_VAL_ENUM_OBS, "MDC_ATTR_VAL_ENUM_OBS",
+                "Enumeration observed value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_REL_HI_RES, "MDC_ATTR_TIME_REL_HI_RES",
+                "High resolution relative time", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_STAMP_REL_HI_RES, "MDC_ATTR_TIME_STAMP_REL_HI_RES",
+                "High resolution relative time stamp", null);
+        add(MDC_PART_OBJ, MDC_ATTR_DEV_CONFIG_ID, "MDC_ATTR_DEV_CONFIG_ID",
+                "Device configuration id", null);
+        add(MDC_PART_OBJ, MDC_ATTR_MDS_TIME_INFO, "MDC_ATTR_MDS_TIME_INFO",
+                "MDS time information", null);
+        add(MDC_PART_OBJ, MDC_ATTR_METRIC_SPEC_SMALL, "MDC_ATTR_METRIC_SPEC_SMALL",
+                "Metric specification", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SOURCE_HANDLE_REF, "MDC_ATTR_SOURCE_HANDLE_REF",
+                "Source handle reference", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SIMP_SA_OBS_VAL, "MDC_ATTR_SIMP_SA_OBS_VAL",
+                "Sample array observed value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ENUM_OBS_VAL_SIMP_OID, "MDC_ATTR_ENUM_OBS_VAL_SIMP_OID",
+                "Enumeration OID value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ENUM_OBS_VAL_SIMP_STR, "MDC_ATTR_ENUM_OBS_VAL_SIMP_STR",
+                "Enumeration string value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_REG_CERT_DATA_LIST, "MDC_ATTR_REG_CERT_DATA_LIST",
+                "Regulatory certification data", null);
+        add(MDC_PART_OBJ, MDC_ATTR_NU_VAL_OBS_BASIC, "MDC_ATTR_NU_VAL_OBS_BASIC",
+                "Basic numeric observed value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_PM_STORE_CAPAB, "MDC_ATTR_PM_STORE_CAPAB",
+                "PM-store capabilities", null);
+        add(MDC_PART_OBJ, MDC_ATTR_PM_SEG_MAP, "MDC_ATTR_PM_SEG_MAP", "PM-segment entry map", null);
+        add(MDC_PART_OBJ, MDC_ATTR_PM_SEG_PERSON_ID, "MDC_ATTR_PM_SEG_PERSON_ID",
+                "PM-segment person id", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SEG_STATS, "MDC_ATTR_SEG_STATS", "Segment statistics", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SEG_FIXED_DATA, "MDC_ATTR_SEG_FIXED_DATA",
+                "Fixed segment data", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SCAN_HANDLE_ATTR_VAL_MAP, "MDC_ATTR_SCAN_HANDLE_ATTR_VAL_MAP",
+                "Scan handle attribute value map", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SCAN_REP_PD_MIN, "MDC_ATTR_SCAN_REP_PD_MIN",
+                "Minimum reporting interval", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ATTRIBUTE_VAL_MAP, "MDC_ATTR_ATTRIBUTE_VAL_MAP",
+                "Attribute value map", null);
+        add(MDC_PART_OBJ, MDC_ATTR_NU_VAL_OBS_SIMP, "MDC_ATTR_NU_VAL_OBS_SIMP",
+                "Simple numeric observed value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_PM_STORE_LABEL_STRING, "MDC_ATTR_PM_STORE_LABEL_STRING",
+                "PM-store label", null);
+        add(MDC_PART_OBJ, MDC_ATTR_PM_SEG_LABEL_STRING, "MDC_ATTR_PM_SEG_LABEL_STRING",
+                "PM-segment label", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_PD_MSMT_ACTIVE, "MDC_ATTR_TIME_PD_MSMT_ACTIVE",
+                "Measurement active period", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SYS_TYPE_SPEC_LIST, "MDC_ATTR_SYS_TYPE_SPEC_LIST",
+                "Specialization list", null);
+        add(MDC_PART_OBJ, MDC_ATTR_METRIC_ID_PART, "MDC_ATTR_METRIC_ID_PART",
+                "Metric id partition", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ENUM_OBS_VAL_PART, "MDC_ATTR_ENUM_OBS_VAL_PART",
+                "Enumeration value partition", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SUPPLEMENTAL_TYPES, "MDC_ATTR_SUPPLEMENTAL_TYPES",
+                "Supplemental types", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TIME_ABS_ADJUST, "MDC_ATTR_TIME_ABS_ADJUST",
+                "Absolute time adjustment", null);
+        add(MDC_PART_OBJ, MDC_ATTR_CLEAR_TIMEOUT, "MDC_ATTR_CLEAR_TIMEOUT", "Clear timeout", null);
+        add(MDC_PART_OBJ, MDC_ATTR_TRANSFER_TIMEOUT, "MDC_ATTR_TRANSFER_TIMEOUT",
+                "Transfer timeout", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ENUM_OBS_VAL_SIMP_BIT_STR, "MDC_ATTR_ENUM_OBS_VAL_SIMP_BIT_STR",
+                "Enumeration bit string value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ENUM_OBS_VAL_BASIC_BIT_STR,
+                "MDC_ATTR_ENUM_OBS_VAL_BASIC_BIT_STR", "Enumeration basic bit string value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_METRIC_STRUCT_SMALL, "MDC_ATTR_METRIC_STRUCT_SMALL",
+                "Metric structure", null);
+        add(MDC_PART_OBJ, MDC_ATTR_NU_CMPD_VAL_OBS_SIMP, "MDC_ATTR_NU_CMPD_VAL_OBS_SIMP",
+                "Simple compound observed value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_NU_CMPD_VAL_OBS_BASIC, "MDC_ATTR_NU_CMPD_VAL_OBS_BASIC",
+                "Basic compound observed value", null);
+        add(MDC_PART_OBJ, MDC_ATTR_ID_PHYSIO_LIST, "MDC_ATTR_ID_PHYSIO_LIST",
+                "Physiological id list", null);
+        add(MDC_PART_OBJ, MDC_ATTR_SCAN_HANDLE_LIST, "MDC_ATTR_SCAN_HANDLE_LIST",
+                "Scan handle list", null);
+        add(MDC_PART_OBJ, MDC_ACT_SEG_CLR, "MDC_ACT_SEG_CLR", "Clear segments", null);
+        add(MDC_PART_OBJ, MDC_ACT_SEG_GET_INFO, "MDC_ACT_SEG_GET_INFO", "Get segment info", null);
+        add(MDC_PART_OBJ, MDC_ACT_SET_TIME, "MDC_ACT_SET_TIME", "Set time", null);
+        add(MDC_PART_OBJ, MDC_ACT_DATA_REQUEST, "MDC_ACT_DATA_REQUEST", "Data request", null);
+        add(MDC_PART_OBJ, MDC_ACT_SEG_TRIG_XFER, "MDC_ACT_SEG_TRIG_XFER",
+                "Trigger segment transfer", null);
+        add(MDC_PART_OBJ, MDC_NOTI_CONFIG, "MDC_NOTI_CONFIG", "Configuration report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_SCAN_REPORT_FIXED, "MDC_NOTI_SCAN_REPORT_FIXED",
+                "Fixed scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_SCAN_REPORT_VAR, "MDC_NOTI_SCAN_REPORT_VAR",
+                "Variable scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_SCAN_REPORT_MP_FIXED, "MDC_NOTI_SCAN_REPORT_MP_FIXED",
+                "Fixed multi-person scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_SCAN_REPORT_MP_VAR, "MDC_NOTI_SCAN_REPORT_MP_VAR",
+                "Variable multi-person scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_SEGMENT_DATA, "MDC_NOTI_SEGMENT_DATA", "Segment data", null);
+        add(MDC_PART_OBJ, MDC_NOTI_UNBUF_SCAN_REPORT_VAR, "MDC_NOTI_UNBUF_SCAN_REPORT_VAR",
+                "Unbuffered variable scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_UNBUF_SCAN_REPORT_FIXED, "MDC_NOTI_UNBUF_SCAN_REPORT_FIXED",
+                "Unbuffered fixed scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_UNBUF_SCAN_REPORT_GROUPED, "MDC_NOTI_UNBUF_SCAN_REPORT_GROUPED",
+                "Unbuffered grouped scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_UNBUF_SCAN_REPORT_MP_VAR, "MDC_NOTI_UNBUF_SCAN_REPORT_MP_VAR",
+                "Unbuffered variable multi-person scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_UNBUF_SCAN_REPORT_MP_FIXED,
+                "MDC_NOTI_UNBUF_SCAN_REPORT_MP_FIXED", "Unbuffered fixed MP scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_UNBUF_SCAN_REPORT_MP_GROUPED,
+                "MDC_NOTI_UNBUF_SCAN_REPORT_MP_GROUPED", "Unbuffered grouped MP scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_BUF_SCAN_REPORT_VAR, "MDC_NOTI_BUF_SCAN_REPORT_VAR",
+                "Buffered variable scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_BUF_SCAN_REPORT_FIXED, "MDC_NOTI_BUF_SCAN_REPORT_FIXED",
+                "Buffered fixed scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_BUF_SCAN_REPORT_GROUPED, "MDC_NOTI_BUF_SCAN_REPORT_GROUPED",
+                "Buffered grouped scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_BUF_SCAN_REPORT_MP_VAR, "MDC_NOTI_BUF_SCAN_REPORT_MP_VAR",
+                "Buffered variable multi-person scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_BUF_SCAN_REPORT_MP_FIXED, "MDC_NOTI_BUF_SCAN_REPORT_MP_FIXED",
+                "Buffered fixed multi-person scan report", null);
+        add(MDC_PART_OBJ, MDC_NOTI_BUF_SCAN_REPORT_MP_GROUPED,
+                "MDC_NOTI_BUF_SCAN_REPORT_MP_GROUPED", "Buffered grouped MP scan report", null);
+        add(MDC_PART_SCADA, MDC_ECG_HEART_RATE, "MDC_ECG_HEART_RATE", "ECG heart rate", null);
+        add(MDC_PART_SCADA, MDC_PRESS_BLD_NONINV, "MDC_PRESS_BLD_NONINV",
+                "Non-invasive blood pressure", null);
+        add(MDC_PART_SCADA, MDC_PRESS_BLD_NONINV_SYS, "MDC_PRESS_BLD_NONINV_SYS",
+                "Systolic blood pressure", null);
+        add(MDC_PART_SCADA, MDC_PRESS_BLD_NONINV_DIA, "MDC_PRESS_BLD_NONINV_DIA",
+                "Diastolic blood pressure", null);
+        add(MDC_PART_SCADA, MDC_PRESS_BLD_NONINV_MEAN, "MDC_PRESS_BLD_NONINV_MEAN",
+                "Mean arterial pressure", null);
+        add(MDC_PART_SCADA, MDC_PULS_OXIM_PULS_RATE, "MDC_PULS_OXIM_PULS_RATE",
+                "Pulse rate (oximeter)", null);
+        add(MDC_PART_SCADA, MDC_PULS_RATE_NON_INV, "MDC_PULS_RATE_NON_INV", "Pulse rate", null);
+        add(MDC_PART_SCADA, MDC_TEMP_BODY, "MDC_TEMP_BODY", "Body temperature", null);
+        add(MDC_PART_SCADA, MDC_PULS_OXIM_PLETH, "MDC_PULS_OXIM_PLETH", "Plethysmogram", null);
+        add(MDC_PART_SCADA, MDC_PULS_OXIM_SAT_O2, "MDC_PULS_OXIM_SAT_O2", "SpO2", null);
+        add(MDC_PART_SCADA, MDC_CONC_GLU_CAPILLARY_WHOLEBLOOD, "MDC_CONC_GLU_CAPILLARY_WHOLEBLOOD",
+                "Glucose, capillary whole blood", null);
+        add(MDC_PART_SCADA, MDC_CONC_GLU_CAPILLARY_PLASMA, "MDC_CONC_GLU_CAPILLARY_PLASMA",
+                "Glucose, capillary plasma", null);
+        add(MDC_PART_SCADA, MDC_CONC_GLU_VENOUS_WHOLEBLOOD, "MDC_CONC_GLU_VENOUS_WHOLEBLOOD",
+                "Glucose, venous whole blood", null);
+        add(MDC_PART_SCADA, MDC_CONC_GLU_VENOUS_PLASMA, "MDC_CONC_GLU_VENOUS_PLASMA",
+                "Glucose, venous plasma", null);
+        add(MDC_PART_SCADA, MDC_CONC_GLU_ARTERIAL_WHOLEBLOOD, "MDC_CONC_GLU_ARTERIAL_WHOLEBLOOD",
+                "Glucose, arterial whole blood", null);
+        add(MDC_PART_SCADA, MDC_CONC_GLU_ARTERIAL_PLASMA, "MDC_CONC_GLU_ARTERIAL_PLASMA",
+                "Glucose, arterial plasma", null);
+        add(MDC_PART_SCADA, MDC_CONC_GLU_CONTROL, "MDC_CONC_GLU_CONTROL",
+                "Glucose, control solution", null);
+        add(MDC_PART_SCADA, MDC_CONC_GLU_ISF, "MDC_CONC_GLU_ISF",
+                "Glucose, interstitial fluid", null);
+        add(MDC_PART_SCADA, MDC_CONC_HBA1C, "MDC_CONC_HBA1C", "HbA1c", null);
+        add(MDC_PART_SCADA, MDC_MASS_BODY_ACTUAL, "MDC_MASS_BODY_ACTUAL", "Body weight", null);
+        add(MDC_PART_SCADA, MDC_LEN_BODY_ACTUAL, "MDC_LEN_BODY_ACTUAL", "Body height", null);
+        add(MDC_PART_SCADA, MDC_RATIO_MASS_BODY_LEN_SQ, "MDC_RATIO_MASS_BODY_LEN_SQ",
+                "Body mass index", null);
+        add(MDC_PART_DIM, MDC_DIM_DIMLESS, "MDC_DIM_DIMLESS", "Dimensionless", "");
+        add(MDC_PART_DIM, MDC_DIM_PERCENT, "MDC_DIM_PERCENT", "Percent", "%");
+        add(MDC_PART_DIM, MDC_DIM_CENTI_M, "MDC_DIM_CENTI_M", "Centimetre", "cm");
+        add(MDC_PART_DIM, MDC_DIM_INCH, "MDC_DIM_INCH", "Inch", "in");
+        add(MDC_PART_DIM, MDC_DIM_X_G, "MDC_DIM_X_G", "Gram", "g");
+        add(MDC_PART_DIM, MDC_DIM_KILO_G, "MDC_DIM_KILO_G", "Kilogram", "kg");
+        add(MDC_PART_DIM, MDC_DIM_LB, "MDC_DIM_LB", "Pound", "lb");
+        add(MDC_PART_DIM, MDC_DIM_KG_PER_M_SQ, "MDC_DIM_KG_PER_M_SQ",
+                "Kilogram per square metre", "kg/m2");
+        add(MDC_PART_DIM, MDC_DIM_MILLI_G_PER_DL, "MDC_DIM_MILLI_G_PER_DL",
+                "Milligram per decilitre", "mg/dL");
+        add(MDC_PART_DIM, MDC_DIM_SEC, "MDC_DIM_SEC", "Second", "s");
+        add(MDC_PART_DIM, MDC_DIM_MIN, "MDC_DIM_MIN", "Minute", "min");
+        add(MDC_PART_DIM, MDC_DIM_HR, "MDC_DIM_HR", "Hour", "h");
+        add(MDC_PART_DIM, MDC_DIM_DAY, "MDC_DIM_DAY", "Day", "d");
+        add(MDC_PART_DIM, MDC_DIM_BEAT_PER_MIN, "MDC_DIM_BEAT_PER_MIN", "Beats per minute", "bpm");
+        add(MDC_PART_DIM, MDC_DIM_RESP_PER_MIN, "MDC_DIM_RESP_PER_MIN",
+                "Breaths per minute", "resp/min");
+        add(MDC_PART_DIM, MDC_DIM_KILO_PASCAL, "MDC_DIM_KILO_PASCAL", "Kilopascal", "kPa");
+        add(MDC_PART_DIM, MDC_DIM_MMHG, "MDC_DIM_MMHG", "Millimetre of mercury", "mmHg");
+        add(MDC_PART_DIM, MDC_DIM_MILLI_VOLT, "MDC_DIM_MILLI_VOLT", "Millivolt", "mV");
+        add(MDC_PART_DIM, MDC_DIM_FAHR, "MDC_DIM_FAHR", "Degree Fahrenheit", "\u00b0F");
+        add(MDC_PART_DIM, MDC_DIM_MILLI_MOLE_PER_L, "MDC_DIM_MILLI_MOLE_PER_L",
+                "Millimole per litre", "mmol/L");
+        add(MDC_PART_DIM, MDC_DIM_DEGC, "MDC_DIM_DEGC", "Degree Celsius", "\u00b0C");
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_PULS_OXIM, "MDC_DEV_SPEC_PROFILE_PULS_OXIM",
+                "Pulse oximeter", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_MIN_ECG, "MDC_DEV_SPEC_PROFILE_MIN_ECG",
+                "Basic ECG", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_BPM, "MDC_DEV_SPEC_PROFILE_BPM",
+                "Blood pressure monitor", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_TEMP, "MDC_DEV_SPEC_PROFILE_TEMP",
+                "Thermometer", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_RESP_RATE, "MDC_DEV_SPEC_PROFILE_RESP_RATE",
+                "Respiration rate monitor", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_SCALE, "MDC_DEV_SPEC_PROFILE_SCALE",
+                "Weighing scale", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_GLUCOSE, "MDC_DEV_SPEC_PROFILE_GLUCOSE",
+                "Glucose meter", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_COAG, "MDC_DEV_SPEC_PROFILE_COAG",
+                "INR monitor", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_INSULIN_PUMP, "MDC_DEV_SPEC_PROFILE_INSULIN_PUMP",
+                "Insulin pump", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_BCA, "MDC_DEV_SPEC_PROFILE_BCA",
+                "Body composition analyzer", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_PEAK_FLOW, "MDC_DEV_SPEC_PROFILE_PEAK_FLOW",
+                "Peak flow monitor", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_SABTE, "MDC_DEV_SPEC_PROFILE_SABTE",
+                "Sleep apnoea breathing therapy equipment", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_HF_CARDIO, "MDC_DEV_SPEC_PROFILE_HF_CARDIO",
+                "Cardiovascular fitness monitor", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_HF_STRENGTH, "MDC_DEV_SPEC_PROFILE_HF_STRENGTH",
+                "Strength fitness equipment", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_AI_ACTIVITY_HUB,
+                "MDC_DEV_SPEC_PROFILE_AI_ACTIVITY_HUB", "Activity hub", null);
+        add(MDC_PART_INFRA, MDC_DEV_SPEC_PROFILE_AI_MED_MINDER,
+                "MDC_DEV_SPEC_PROFILE_AI_MED_MINDER", "Medication monitor", null);
+        sNames = Arrays.copyOf(sNames, sCount);
+        sLabels = Arrays.copyOf(sLabels, sCount);
+        sSymbols = Arrays.copyOf(sSymbols, sCount);
+    }
+
+    private Nomenclature() {
+    }
+
+    /** Packs a partition and a 16 bit term code into one lookup key. */
+    public static int key(int partition, int code) {
+        return partition << 16 | (code & 0xffff);
+    }
+
+    /** Returns the symbolic name, e.g. "MDC_PRESS_BLD_NONINV_SYS", or null if unknown. */
+    public static String name(int partition, int code) {
+        int i = sIndex.get(key(partition, code), -1);
+        return i < 0 ? null : sNames[i];
+    }
+
+    /** Returns a short human readable label, or null if the code is unknown. */
+    public static String label(int partition, int code) {
+        int i = sIndex.get(key(partition, code), -1);
+        return i < 0 ? null : sLabels[i];
+    }
+
+    /** Returns the display symbol of a MDC_PART_DIM unit code, e.g. "mmHg", or null. */
+    public static String unitSymbol(int unitCode) {
+        int i = sIndex.get(key(MDC_PART_DIM, unitCode), -1);
+        return i < 0 ? null : sSymbols[i];
+    }
+
+    public static boolean isKnown(int partition, int code) {
+        return sIndex.containsKey(key(partition, code));
+    }
+
+    private static void add(int partition, int code, String name, String label,
+            String symbol) {
+        int i = sCount++;
+        if (i == sNames.length) {
+            sNames = Arrays.copyOf(sNames, i * 2);
+            sLabels = Arrays.copyOf(sLabels, i * 2);
+            sSymbols = Arrays.copyOf(sSymbols, i * 2);
+        }
+        sNames[i] = name;
+        sLabels[i] = label;
+        sSymbols[i] = symbol;
+        sIndex.put(key(partition, code), i);
+    }
+}
+
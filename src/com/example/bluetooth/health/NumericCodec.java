@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+/**
+ * MDER numeric types from IEEE 11073-20601 Annex F.
+ *
+ * <pre>
+ * SFLOAT-Type := exponent(4 bit, signed) mantissa(12 bit, signed)   value = m * 10^e
+ * FLOAT-Type  := exponent(8 bit, signed) mantissa(24 bit, signed)
+ * BasicNuObsValue    := SFLOAT-Type
+ * BasicNuObsValueCmp := count(u16) length(u16) SFLOAT-Type * count
+ * </pre>
+ *
+ * Decoding uses precomputed power-of-ten tables and returns primitive doubles: NaN for
+ * NaN, NRes and reserved values, and +/- infinity for the infinity codes.  Use
+ * {@link #sfloatStatus(int)} / {@link #floatStatus(int)} to tell those apart.
+ */
+public final class NumericCodec {
+    public static final int STATUS_VALUE = 0;
+    public static final int STATUS_NAN = 1;
+    public static final int STATUS_NRES = 2;
+    public static final int STATUS_POSITIVE_INFINITY = 3;
+    public static final int STATUS_NEGATIVE_INFINITY = 4;
+    public static final int STATUS_RESERVED = 5;
+
+    // Special SFLOAT mantissas (exponent 0).
+    public static final int SFLOAT_NAN = 0x07FF;
+    public static final int SFLOAT_NRES = 0x0800;
+    public static final int SFLOAT_POSITIVE_INFINITY = 0x07FE;
+    public static final int SFLOAT_NEGATIVE_INFINITY = 0x0802;
+    public static final int SFLOAT_RESERVED = 0x0801;
+
+    // Special FLOAT mantissas (exponent 0).
+    public static final int FLOAT_NAN = 0x007FFFFF;
+    public static final int FLOAT_NRES = 0x00800000;
+    public static final int FLOAT_POSITIVE_INFINITY = 0x007FFFFE;
+    public static final int FLOAT_NEGATIVE_INFINITY = 0x00800002;
+    public static final int FLOAT_RESERVED = 0x00800001;
+
+    // 10^e for e = -128..127, indexed by e + 128.  Negative powers are stored as divisors so
+    // that e.g. 1234 * 10^-1 yields exactly 123.4.
+    private static final double[] POW10 = new double[256];
+    private static final boolean[] DIVIDE = new boolean[256];
+    static {
+        for (int e = -128; e < 128; e++) {
+            DIVIDE[e + 128] = e < 0;
+            POW10[e + 128] = Math.pow(10, Math.abs(e));
+        }
+    }
+
+    private NumericCodec() {}
+
+    /** Reads a big-endian 16 bit SFLOAT raw value. */
+    public static int readSfloat(byte[] b, int offset) {
+        return (b[offset] & 0xFF) << 8 | (b[offset + 1] & 0xFF);
+    }
+
+    /** Reads a big-endian 32 bit FLOAT raw value. */
+    public static int readFloat(byte[] b, int offset) {
+        return (b[offset] & 0xFF) << 24 | (b[offset + 1] & 0xFF) << 16
+                | (b[offset + 2] & 0xFF) << 8 | (b[offset + 3] & 0xFF);
+    }
+
+    /** Decodes the SFLOAT at <code>offset</code>. */
+    public static double sfloat(byte[] b, int offset) {
+        return sfloat(readSfloat(b, offset));
+    }
+
+    /** Decodes the FLOAT at <code>offset</code>. */
+    public static double float32(byte[] b, int offset) {
+        return float32(readFloat(b, offset));
+    }
+
+    /** Decodes a raw 16 bit SFLOAT. */
+    public static double sfloat(int raw) {
+        int mantissa = raw & 0x0FFF;
+        int exponent = (raw << 16) >> 28;
+        if (exponent == 0 && mantissa >= SFLOAT_POSITIVE_INFINITY
+                && mantissa <= SFLOAT_NEGATIVE_INFINITY) {
+            return special(sfloatStatus(raw));
+        }
+        // Sign-extend the 12 bit mantissa.
+        return scale((mantissa << 20) >> 20, exponent);
+    }
+
+    /** Decodes a raw 32 bit FLOAT. */
+    public static double float32(int raw) {
+        int mantissa = raw & 0x00FFFFFF;
+        int exponent = raw >> 24;
+        if (exponent == 0 && mantissa >= FLOAT_POSITIVE_INFINITY
+                && mantissa <= FLOAT_NEGATIVE_INFINITY) {
+            return special(floatStatus(raw));
+        }
+        return scale((mantissa << 8) >> 8, exponent);
+    }
+
+    /** Classifies a raw SFLOAT as a value or one of the special codes. */
+    public static int sfloatStatus(int raw) {
+        if ((raw & 0xF000) != 0) return STATUS_VALUE;
+        switch (raw & 0x0FFF) {
+            case SFLOAT_NAN: return STATUS_NAN;
+            case SFLOAT_NRES: return STATUS_NRES;
+            case SFLOAT_POSITIVE_INFINITY: return STATUS_POSITIVE_INFINITY;
+            case SFLOAT_NEGATIVE_INFINITY: return STATUS_NEGATIVE_INFINITY;
+            case SFLOAT_RESERVED: return STATUS_RESERVED;
+            default: return STATUS_VALUE;
+        }
+    }
+
+    /** Classifies a raw FLOAT as a value or one of the special codes. */
+    public static int floatStatus(int raw) {
+        if ((raw & 0xFF000000) != 0) return STATUS_VALUE;
+        switch (raw & 0x00FFFFFF) {
+            case FLOAT_NAN: return STATUS_NAN;
+            case FLOAT_NRES: return STATUS_NRES;
+            case FLOAT_POSITIVE_INFINITY: return STATUS_POSITIVE_INFINITY;
+            case FLOAT_NEGATIVE_INFINITY: return STATUS_NEGATIVE_INFINITY;
+            case FLOAT_RESERVED: return STATUS_RESERVED;
+            default: return STATUS_VALUE;
+        }
+    }
+
+    /** Decodes a BasicNuObsValue (a single SFLOAT). */
+    public static double basicNu(byte[] b, int offset) {
+        return sfloat(b, offset);
+    }
+
+    /**
+     * Decodes a BasicNuObsValueCmp into <code>out</code> and returns the number of values,
+     * which may exceed <code>out.length</code>; extra values are skipped.
+     */
+    public static int basicNuCmp(byte[] b, int offset, double[] out) {
+        int count = (b[offset] & 0xFF) << 8 | (b[offset + 1] & 0xFF);
+        int n = Math.min(count, out.length);
+        for (int i = 0; i < n; i++) {
+            out[i] = sfloat(b, offset + 4 + 2 * i);
+        }
+        return count;
+    }
+
+    private static double scale(int mantissa, int exponent) {
+        int i = exponent + 128;
+        return DIVIDE[i] ? mantissa / POW10[i] : mantissa * POW10[i];
+    }
+
+    private static double special(int status) {
+        switch (status) {
+            case STATUS_POSITIVE_INFINITY: return Double.POSITIVE_INFINITY;
+            case STATUS_NEGATIVE_INFINITY: return Double.NEGATIVE_INFINITY;
+            default: return Double.NaN;
+        }
+    }
+}
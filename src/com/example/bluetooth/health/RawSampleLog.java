@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Append-only files of raw streamed samples, one per device and metric, written a batch at a
+ * time.
+ *
+ * <pre>
+ * batch  := count(u16) sample * count
+ * sample := time(i64, epoch millis) value(f32)
+ * </pre>
+ * All values are big-endian.  Safe for use from several session threads.
+ */
+public final class RawSampleLog implements SampleStream.BatchSink {
+    private static final int SAMPLE_LENGTH = 12;
+
+    private final File mDirectory;
+    private final Map<String, FileOutputStream> mFiles = new HashMap<String, FileOutputStream>();
+    // Encoding buffer, grown to the largest batch seen.
+    private byte[] mBuffer = new byte[2 + 256 * SAMPLE_LENGTH];
+
+    public RawSampleLog(File directory) {
+        mDirectory = directory;
+    }
+
+    /** File holding the samples of a device and metric. */
+    public File file(String device, int metric) {
+        // Bluetooth addresses contain ':', which is not portable in file names.
+        return new File(mDirectory, device.replace(':', '-') + "_" + Integer.toHexString(metric)
+                + ".raw");
+    }
+
+    public synchronized void write(String device, int metric, long[] times, float[] values,
+            int count) throws IOException {
+        FileOutputStream out = open(device, metric);
+        for (int start = 0; start < count; start += 0xFFFF) {
+            int n = Math.min(count - start, 0xFFFF);
+            int length = 2 + n * SAMPLE_LENGTH;
+            if (mBuffer.length < length) mBuffer = new byte[length];
+            byte[] b = mBuffer;
+            b[0] = (byte) (n >> 8);
+            b[1] = (byte) n;
+            int o = 2;
+            for (int i = start; i < start + n; i++) {
+                long t = times[i];
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    b[o++] = (byte) (t >> shift);
+                }
+                int v = Float.floatToIntBits(values[i]);
+                b[o++] = (byte) (v >> 24);
+                b[o++] = (byte) (v >> 16);
+                b[o++] = (byte) (v >> 8);
+                b[o++] = (byte) v;
+            }
+            out.write(b, 0, length);
+        }
+    }
+
+    /** Closes the files of one device, e.g. when its session ends. */
+    public synchronized void close(String device) {
+        String prefix = device + "_";
+        for (Iterator<Map.Entry<String, FileOutputStream>> it = mFiles.entrySet().iterator();
+                it.hasNext();) {
+            Map.Entry<String, FileOutputStream> e = it.next();
+            if (e.getKey().startsWith(prefix)) {
+                closeQuietly(e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void close() {
+        for (FileOutputStream out : mFiles.values()) {
+            closeQuietly(out);
+        }
+        mFiles.clear();
+    }
+
+    private FileOutputStream open(String device, int metric) throws IOException {
+        String key = device + "_" + metric;
+        FileOutputStream out = mFiles.get(key);
+        if (out == null) {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Cannot create " + mDirectory);
+            }
+            out = new FileOutputStream(file(device, metric), true);
+            mFiles.put(key, out);
+        }
+        return out;
+    }
+
+    private static void closeQuietly(FileOutputStream out) {
+        try {
+            out.close();
+        } catch (IOException e) { /* Do nothing. */ }
+    }
+}
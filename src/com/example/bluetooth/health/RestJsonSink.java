@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.entity.StringEntity;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.util.Log;
+
+/**
+ * Posts measurements as JSON to a REST collection endpoint such as the MongoLab hub or a
+ * local HTTP test server.  A single measurement is sent as one object, larger batches as an
+ * array of objects.  The last reading of each device in a batch carries the device's
+ * {@link MeasurementStats} summary at upload time, stamped with the time of the newest reading
+ * it includes.
+ */
+public class RestJsonSink implements MeasurementSink {
+    private static final String TAG = "bp";
+
+    private final String mUrl;
+
+    public RestJsonSink(String url) {
+        mUrl = url;
+    }
+
+    public void send(List<Measurement> batch) throws IOException {
+        if (batch.isEmpty()) return;
+        String body;
+        try {
+            JSONObject[] objects = toJson(batch);
+            if (objects.length == 1) {
+                body = objects[0].toString();
+            } else {
+                JSONArray array = new JSONArray();
+                for (JSONObject object : objects) {
+                    array.put(object);
+                }
+                body = array.toString();
+            }
+        } catch (JSONException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        StringEntity entity = new StringEntity(body, "UTF-8");
+        entity.setContentType("application/json");
+        Log.d(TAG, HubClient.getInstance().post(mUrl, entity));
+    }
+
+    /** One object per reading, with a summary on the last reading of each device. */
+    static JSONObject[] toJson(List<Measurement> batch) throws JSONException {
+        JSONObject[] objects = new JSONObject[batch.size()];
+        Map<String, JSONObject> last = new HashMap<String, JSONObject>();
+        for (int i = 0; i < objects.length; i++) {
+            Measurement m = batch.get(i);
+            objects[i] = toJson(m);
+            last.put(m.device, objects[i]);
+        }
+        for (Map.Entry<String, JSONObject> e : last.entrySet()) {
+            MeasurementStats.Summary summary = MeasurementStats.getInstance().summary(e.getKey());
+            if (summary != null) {
+                e.getValue().put("stats", toJson(summary));
+            }
+        }
+        return objects;
+    }
+
+    static JSONObject toJson(Measurement m) throws JSONException {
+        JSONObject object = new JSONObject();
+        object.put("device", m.device);
+        putValue(object, "systolic", m.systolic);
+        putValue(object, "diastolic", m.diastolic);
+        putValue(object, "meanArterial", m.meanArterial);
+        putValue(object, "pulse", m.pulse);
+        object.put("unit", Nomenclature.unitSymbol(m.unit));
+        object.put("time", m.time);
+        // Identity of the agent as read from its MDS, shared with the sessions.
+        DeviceInfo info = DeviceInfoCache.getInstance().forAddress(m.device);
+        if (info != null) {
+            object.put("agent", toJson(info));
+        }
+        return object;
+    }
+
+    static JSONObject toJson(DeviceInfo info) throws JSONException {
+        JSONObject object = new JSONObject();
+        object.put("systemId", String.format("%016X", info.systemId));
+        object.putOpt("manufacturer", info.manufacturer);
+        object.putOpt("model", info.model);
+        object.putOpt("serial", info.serial);
+        object.putOpt("firmware", info.firmware);
+        JSONArray specializations = new JSONArray();
+        for (int code : info.specializations) {
+            specializations.put(code);
+        }
+        object.put("specializations", specializations);
+        return object;
+    }
+
+    // Stats are always in mmHg.
+    static JSONObject toJson(MeasurementStats.Summary s) throws JSONException {
+        JSONObject object = new JSONObject();
+        object.put("asOf", s.time);
+        object.put("count", s.count);
+        putValue(object, "meanSystolic", s.meanSystolic);
+        putValue(object, "meanDiastolic", s.meanDiastolic);
+        putValue(object, "meanPulse", s.meanPulse);
+        putValue(object, "minSystolic", s.minSystolic);
+        putValue(object, "maxSystolic", s.maxSystolic);
+        putValue(object, "minDiastolic", s.minDiastolic);
+        putValue(object, "maxDiastolic", s.maxDiastolic);
+        putValue(object, "trendSystolic", s.trendSystolic);
+        putValue(object, "trendDiastolic", s.trendDiastolic);
+        putValue(object, "morningSystolic", s.morningSystolic);
+        putValue(object, "morningDiastolic", s.morningDiastolic);
+        putValue(object, "eveningSystolic", s.eveningSystolic);
+        putValue(object, "eveningDiastolic", s.eveningDiastolic);
+        return object;
+    }
+
+    // JSONObject rejects NaN and infinities, so values the agent did not report are left out.
+    private static void putValue(JSONObject object, String name, double value)
+            throws JSONException {
+        if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+            object.put(name, value);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+/**
+ * Fixed-size sliding window over double samples backed by primitive ring buffers.
+ *
+ * {@link #add(double)} is O(1) (amortized for min/max) and allocation free.  The window keeps:
+ * <ul>
+ * <li>running sum for the mean,</li>
+ * <li>monotonic deques of sample sequence numbers for the min and max,</li>
+ * <li>least-squares sums over (sequence, value) for the trend, in units per sample.</li>
+ * </ul>
+ *
+ * Not thread-safe; callers synchronize.
+ */
+final class RollingWindow {
+    private final int mCapacity;
+    private final double[] mValues;
+    // Monotonic deques holding absolute sequence numbers, stored modulo capacity.
+    private final long[] mMinSeq;
+    private final long[] mMaxSeq;
+    private int mMinHead, mMinSize;
+    private int mMaxHead, mMaxSize;
+
+    // Sequence number of the next sample; samples [mNext - size, mNext) are in the window.
+    private long mNext;
+    private int mSize;
+
+    private double mSum;
+    // Sums for the linear regression of value against sequence number.  Sequence numbers are
+    // taken relative to mOrigin, which is advanced on overflow risk to keep doubles exact.
+    private long mOrigin;
+    private double mSumX, mSumXX, mSumXY;
+
+    RollingWindow(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity < 1");
+        mCapacity = capacity;
+        mValues = new double[capacity];
+        mMinSeq = new long[capacity];
+        mMaxSeq = new long[capacity];
+    }
+
+    void add(double value) {
+        if (mSize == mCapacity) {
+            evict();
+        }
+        long seq = mNext++;
+        mValues[(int) (seq % mCapacity)] = value;
+        mSize++;
+        mSum += value;
+        double x = seq - mOrigin;
+        mSumX += x;
+        mSumXX += x * x;
+        mSumXY += x * value;
+
+        // Drop samples that can no longer be the min / max while this one is in the window.
+        while (mMinSize > 0 && valueAt(mMinSeq[(mMinHead + mMinSize - 1) % mCapacity]) >= value) {
+            mMinSize--;
+        }
+        mMinSeq[(mMinHead + mMinSize++) % mCapacity] = seq;
+        while (mMaxSize > 0 && valueAt(mMaxSeq[(mMaxHead + mMaxSize - 1) % mCapacity]) <= value) {
+            mMaxSize--;
+        }
+        mMaxSeq[(mMaxHead + mMaxSize++) % mCapacity] = seq;
+
+        if (mSize == mCapacity && seq - mOrigin > (1L << 20)) {
+            rebase();
+        }
+    }
+
+    private void evict() {
+        long seq = mNext - mSize;
+        double value = valueAt(seq);
+        mSize--;
+        mSum -= value;
+        double x = seq - mOrigin;
+        mSumX -= x;
+        mSumXX -= x * x;
+        mSumXY -= x * value;
+        if (mMinSize > 0 && mMinSeq[mMinHead] == seq) {
+            mMinHead = (mMinHead + 1) % mCapacity;
+            mMinSize--;
+        }
+        if (mMaxSize > 0 && mMaxSeq[mMaxHead] == seq) {
+            mMaxHead = (mMaxHead + 1) % mCapacity;
+            mMaxSize--;
+        }
+    }
+
+    // Recomputes the sums relative to the oldest sample, which also drops accumulated
+    // rounding error.  O(capacity), but only once every million samples.
+    private void rebase() {
+        mOrigin = mNext - mSize;
+        mSum = mSumX = mSumXX = mSumXY = 0;
+        for (long seq = mOrigin; seq < mNext; seq++) {
+            double x = seq - mOrigin;
+            mSumX += x;
+            mSumXX += x * x;
+            mSum += valueAt(seq);
+            mSumXY += x * valueAt(seq);
+        }
+    }
+
+    private double valueAt(long seq) {
+        return mValues[(int) (seq % mCapacity)];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    double mean() {
+        return mSize == 0 ? Double.NaN : mSum / mSize;
+    }
+
+    double min() {
+        return mMinSize == 0 ? Double.NaN : valueAt(mMinSeq[mMinHead]);
+    }
+
+    double max() {
+        return mMaxSize == 0 ? Double.NaN : valueAt(mMaxSeq[mMaxHead]);
+    }
+
+    /** Least-squares slope of the window in units per sample, or 0 with fewer than 2 samples. */
+    double trend() {
+        if (mSize < 2) return 0;
+        double n = mSize;
+        double denominator = n * mSumXX - mSumX * mSumX;
+        if (denominator == 0) return 0;
+        return (n * mSumXY - mSumX * mSum) / denominator;
+    }
+
+    /** Most recently added sample. */
+    double last() {
+        return mSize == 0 ? Double.NaN : valueAt(mNext - 1);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.IOException;
+
+/**
+ * Constant-memory pipeline for one streamed metric of one device.
+ *
+ * Raw samples are collected in a fixed batch and handed to a {@link BatchSink} when it fills,
+ * so persistence costs one write per batch.  In parallel they are aggregated into fixed time
+ * buckets (min / max / mean) kept in a ring of the most recent buckets, which is what displays
+ * and summaries read.  Memory use is fixed at construction, however long the session runs.
+ *
+ * {@link #add(long, double)}, {@link #flush()} and {@link #close()} must be called from one
+ * thread; {@link #copyBuckets} may be called from any thread.
+ */
+public final class SampleStream {
+    /** Receives full batches of raw samples; the arrays are reused after the call. */
+    public interface BatchSink {
+        void write(String device, int metric, long[] times, float[] values, int count)
+                throws IOException;
+    }
+
+    /** Called when a bucket is complete, on the thread feeding the stream. */
+    public interface BucketListener {
+        void onBucket(SampleStream stream);
+    }
+
+    private final String mDevice;
+    private final int mMetric;
+    private final long mBucketMs;
+    private final BatchSink mSink;
+    private final BucketListener mListener;
+
+    // Raw batch.
+    private final long[] mBatchTimes;
+    private final float[] mBatchValues;
+    private int mBatchCount;
+    private int mFailedBatches;
+
+    // Bucket being aggregated.
+    private long mBucketStart = Long.MIN_VALUE;
+    private double mMin, mMax, mSum;
+    private int mBucketCount;
+
+    // Ring of completed buckets, oldest at mHead.  Guarded by this.
+    private final long[] mStarts;
+    private final float[] mMins;
+    private final float[] mMaxs;
+    private final float[] mMeans;
+    private int mHead;
+    private int mSize;
+    private long mTotal;
+
+    /**
+     * @param bucketMs width of an aggregation bucket.
+     * @param buckets number of recent buckets kept.
+     * @param batchSize raw samples per {@link BatchSink#write} call.
+     * @param sink raw sample sink, or null to keep only the aggregates.
+     * @param listener bucket listener, or null.
+     */
+    public SampleStream(String device, int metric, long bucketMs, int buckets, int batchSize,
+            BatchSink sink, BucketListener listener) {
+        if (bucketMs <= 0 || buckets <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        mDevice = device;
+        mMetric = metric;
+        mBucketMs = bucketMs;
+        mSink = sink;
+        mListener = listener;
+        mBatchTimes = new long[batchSize];
+        mBatchValues = new float[batchSize];
+        mStarts = new long[buckets];
+        mMins = new float[buckets];
+        mMaxs = new float[buckets];
+        mMeans = new float[buckets];
+    }
+
+    public String getDevice() {
+        return mDevice;
+    }
+
+    public int getMetric() {
+        return mMetric;
+    }
+
+    /** Raw batches the sink failed to write. */
+    public int getFailedBatches() {
+        return mFailedBatches;
+    }
+
+    /** Number of aggregated samples so far. */
+    public synchronized long getTotal() {
+        return mTotal;
+    }
+
+    /** Adds one sample; time in epoch millis.  Non-finite values are stored but not aggregated. */
+    public void add(long time, double value) {
+        if (mSink != null) {
+            mBatchTimes[mBatchCount] = time;
+            mBatchValues[mBatchCount] = (float) value;
+            if (++mBatchCount == mBatchTimes.length) flush();
+        }
+
+        long start = time - floorMod(time, mBucketMs);
+        if (start != mBucketStart) {
+            // Out of order samples from an older bucket close the current one as well.
+            closeBucket();
+            mBucketStart = start;
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value)) return;
+        if (mBucketCount == 0) {
+            mMin = mMax = value;
+        } else if (value < mMin) {
+            mMin = value;
+        } else if (value > mMax) {
+            mMax = value;
+        }
+        mSum += value;
+        mBucketCount++;
+    }
+
+    /** Writes pending raw samples to the sink. */
+    public void flush() {
+        if (mBatchCount == 0) return;
+        int n = mBatchCount;
+        mBatchCount = 0;
+        try {
+            mSink.write(mDevice, mMetric, mBatchTimes, mBatchValues, n);
+        } catch (IOException e) {
+            // Raw history is best effort; the aggregates keep going.
+            mFailedBatches++;
+        }
+    }
+
+    /** Completes the current bucket and flushes raw samples. */
+    public void close() {
+        closeBucket();
+        mBucketStart = Long.MIN_VALUE;
+        if (mSink != null) flush();
+    }
+
+    /**
+     * Copies up to <code>max</code> of the most recent buckets, oldest first, into the arrays
+     * and returns how many were copied.
+     */
+    public synchronized int copyBuckets(long[] starts, float[] mins, float[] maxs, float[] means,
+            int max) {
+        int n = Math.min(max, mSize);
+        int cap = mStarts.length;
+        int first = mHead + mSize - n;
+        for (int i = 0; i < n; i++) {
+            int j = (first + i) % cap;
+            starts[i] = mStarts[j];
+            mins[i] = mMins[j];
+            maxs[i] = mMaxs[j];
+            means[i] = mMeans[j];
+        }
+        return n;
+    }
+
+    private void closeBucket() {
+        if (mBucketStart == Long.MIN_VALUE) return;
+        int count = mBucketCount;
+        synchronized (this) {
+            mTotal += count;
+            if (count > 0) {
+                int cap = mStarts.length;
+                int i;
+                if (mSize < cap) {
+                    i = (mHead + mSize++) % cap;
+                } else {
+                    // Full: overwrite the oldest.
+                    i = mHead;
+                    mHead = (mHead + 1) % cap;
+                }
+                mStarts[i] = mBucketStart;
+                mMins[i] = (float) mMin;
+                mMaxs[i] = (float) mMax;
+                mMeans[i] = (float) (mSum / count);
+            }
+        }
+        mBucketCount = 0;
+        mSum = 0;
+        if (count > 0 && mListener != null) mListener.onBucket(this);
+    }
+
+    private static long floorMod(long x, long y) {
+        long m = x % y;
+        return m < 0 ? m + y : m;
+    }
+}
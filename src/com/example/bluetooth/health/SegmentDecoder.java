@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.util.HashMap;
+import java.util.TimeZone;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes PM-store segment data off the session threads.  A session only acknowledges each
+ * segment data report and submits its entries; a bounded pool shared by all sessions decodes
+ * the chunks in parallel, and decoded readings go back to the session's thread strictly in
+ * the order the chunks arrived.  A large history download thus uses every core while the
+ * acknowledgements, which the agent waits for before sending more, go out at once.  Since the
+ * agent may clear its store once everything is acknowledged, a session flushes its transfer
+ * before it closes.
+ */
+public final class SegmentDecoder {
+    /** Receives the readings of a transfer on the session's thread, in transfer order. */
+    public interface Sink {
+        void onReadings(Measurement[] readings, int count);
+    }
+
+    private final ThreadPoolExecutor mPool;
+
+    /** @param threads pool size, usually the number of cores. */
+    public SegmentDecoder(int threads) {
+        final AtomicInteger number = new AtomicInteger();
+        // Idle threads time out, so the pool costs nothing between downloads.
+        mPool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "hdp-segment-" + number.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        mPool.allowCoreThreadTimeOut(true);
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    /**
+     * Starts a transfer.  Readings are handed to <code>sink</code> through
+     * <code>scheduler</code>, so they arrive on the session's thread.
+     */
+    public Transfer open(SegmentLayout layout, String device, int unit, TimeZone zone,
+            ManagerSession.Scheduler scheduler, Sink sink) {
+        return new Transfer(layout, device, unit, zone, scheduler, sink);
+    }
+
+    /** One segment download.  Submit and cancel on the session's thread. */
+    public final class Transfer {
+        private final SegmentLayout mLayout;
+        private final String mDevice;
+        private final int mUnit;
+        private final TimeZone mZone;
+        private final ManagerSession.Scheduler mScheduler;
+        private final Sink mSink;
+        // Chunks submitted and delivered.  Session thread only.
+        private int mSubmitted;
+        private int mDelivered;
+        // Decoded chunks waiting for delivery, and how many chunks were decoded.  Guarded by
+        // this.
+        private final HashMap<Integer, Chunk> mDone = new HashMap<Integer, Chunk>();
+        private int mCompleted;
+        private boolean mCancelled;
+
+        private final Runnable mDeliver = new Runnable() {
+            public void run() {
+                deliverReady();
+            }
+        };
+
+        Transfer(SegmentLayout layout, String device, int unit, TimeZone zone,
+                ManagerSession.Scheduler scheduler, Sink sink) {
+            mLayout = layout;
+            mDevice = device;
+            mUnit = unit;
+            mZone = zone;
+            mScheduler = scheduler;
+            mSink = sink;
+        }
+
+        /** Queues <code>count</code> entries for decoding; <code>entries</code> is kept. */
+        public void submit(final byte[] entries, final int count) {
+            final int sequence = mSubmitted++;
+            final long now = System.currentTimeMillis();
+            mPool.execute(new Runnable() {
+                public void run() {
+                    Chunk chunk = new Chunk(count);
+                    try {
+                        chunk.mCount = mLayout.decode(entries, 0, count, mDevice, mUnit, mZone,
+                                now, chunk.mReadings);
+                    } catch (RuntimeException e) {
+                        // Lose the chunk rather than stall every chunk behind it.
+                        chunk.mCount = 0;
+                    }
+                    complete(sequence, chunk);
+                }
+            });
+        }
+
+        /**
+         * Waits up to <code>timeoutMs</code> for the chunks still being decoded and delivers
+         * them on the calling thread, the session's.  Returns false if some were not ready.
+         */
+        public boolean flush(long timeoutMs) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            synchronized (this) {
+                while (!mCancelled && mCompleted < mSubmitted) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) break;
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            deliverReady();
+            return mDelivered == mSubmitted;
+        }
+
+        /** Readings not yet delivered are dropped. */
+        public void cancel() {
+            synchronized (this) {
+                mCancelled = true;
+                mDone.clear();
+            }
+        }
+
+        // Any pool thread.
+        private void complete(int sequence, Chunk chunk) {
+            synchronized (this) {
+                if (mCancelled) return;
+                mDone.put(sequence, chunk);
+                mCompleted++;
+                notifyAll();
+            }
+            mScheduler.post(mDeliver);
+        }
+
+        // Session thread: delivers the decoded chunks that are next in line, in order.
+        private void deliverReady() {
+            while (true) {
+                Chunk chunk;
+                synchronized (this) {
+                    if (mCancelled) return;
+                    chunk = mDone.remove(mDelivered);
+                }
+                if (chunk == null) return;
+                mDelivered++;
+                mSink.onReadings(chunk.mReadings, chunk.mCount);
+            }
+        }
+    }
+
+    private static final class Chunk {
+        final Measurement[] mReadings;
+        int mCount;
+
+        Chunk(int entries) {
+            mReadings = new Measurement[entries];
+        }
+    }
+}
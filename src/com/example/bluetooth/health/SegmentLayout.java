@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PM-store layout of a device configuration: the handle of the PM-store, the PM-segment to
+ * download and that segment's PM-Segment-Entry-Map, i.e. the fixed encoding of each stored
+ * entry.  {@link ManagerSession} learns it from agents with an extended configuration: the
+ * PM-store handle from their configuration report, the entry map from Get-Segment-Info.  A
+ * learned layout is kept per agent with {@link #remember(long, int, SegmentLayout)}, so the
+ * configuration is known when the agent associates again.  Layouts of configurations that
+ * are never reported can be registered with {@link #register(int, SegmentLayout)}.
+ *
+ * Immutable once built; {@link #decode} may run on several threads at once.
+ */
+public final class SegmentLayout {
+    // SegmEntryHeader bits and the size of the fields they add in front of each entry.
+    private static final int HEADER_ABSOLUTE_TIME = 0x8000;
+    private static final int HEADER_RELATIVE_TIME = 0x4000;
+    private static final int HEADER_HIRES_RELATIVE_TIME = 0x2000;
+
+    private static final ConcurrentHashMap<Integer, SegmentLayout> sLayouts =
+            new ConcurrentHashMap<Integer, SegmentLayout>();
+    // Learned layouts keyed by system-id and dev-config-id.
+    private static final ConcurrentHashMap<String, SegmentLayout> sLearned =
+            new ConcurrentHashMap<String, SegmentLayout>();
+
+    private final int mStoreHandle;
+    private final int mSegment;
+    private final int mHeader;
+    private final int mHeaderLength;
+    private final int mEntryLength;
+    // One slot per attribute of every element, in entry order.
+    private final int[] mMetrics;
+    private final int[] mAttributes;
+    private final int[] mLengths;
+
+    /** Registers the layout of a device configuration, replacing any previous one. */
+    public static void register(int devConfigId, SegmentLayout layout) {
+        sLayouts.put(devConfigId, layout);
+    }
+
+    /** Layout of a device configuration, or null if it has no PM-store to download. */
+    public static SegmentLayout forConfig(int devConfigId) {
+        return sLayouts.get(devConfigId);
+    }
+
+    /** Keeps the layout learned from an agent for its next associations. */
+    public static void remember(long systemId, int devConfigId, SegmentLayout layout) {
+        sLearned.put(systemId + "/" + devConfigId, layout);
+    }
+
+    /** Layout learned from the agent for the configuration, else the registered one, or null. */
+    public static SegmentLayout forAgent(long systemId, int devConfigId) {
+        SegmentLayout layout = sLearned.get(systemId + "/" + devConfigId);
+        return layout != null ? layout : forConfig(devConfigId);
+    }
+
+    /**
+     * @param map the encoded PmSegmentEntryMap at <code>offset</code>, as in the value of the
+     *            agent's MDC_ATTR_PM_SEG_MAP attribute.
+     * @throws IllegalArgumentException if the map is truncated.
+     */
+    public SegmentLayout(int storeHandle, int segment, byte[] map, int offset, int length) {
+        mStoreHandle = storeHandle;
+        mSegment = segment;
+        int end = offset + length;
+        check(offset + 6 <= end);
+        mHeader = ManagerSession.readShort(map, offset);
+        mHeaderLength = ((mHeader & HEADER_ABSOLUTE_TIME) != 0 ? 8 : 0)
+                + ((mHeader & HEADER_RELATIVE_TIME) != 0 ? 4 : 0)
+                + ((mHeader & HEADER_HIRES_RELATIVE_TIME) != 0 ? 8 : 0);
+        int elements = ManagerSession.readShort(map, offset + 2);
+        int p = offset + 6;
+        // First pass counts the attribute slots.
+        int slots = 0;
+        for (int i = 0, q = p; i < elements; i++) {
+            check(q + 12 <= end);
+            int attributes = ManagerSession.readShort(map, q + 8);
+            slots += attributes;
+            q += 12 + attributes * 4;
+        }
+        mMetrics = new int[slots];
+        mAttributes = new int[slots];
+        mLengths = new int[slots];
+        int entryLength = mHeaderLength;
+        int slot = 0;
+        for (int i = 0; i < elements; i++) {
+            // class-id, metric-type (partition, code), handle, attr-val-map count and length.
+            int metric = ManagerSession.readShort(map, p + 4);
+            int attributes = ManagerSession.readShort(map, p + 8);
+            p += 12;
+            check(p + attributes * 4 <= end);
+            for (int j = 0; j < attributes; j++, slot++, p += 4) {
+                mMetrics[slot] = metric;
+                mAttributes[slot] = ManagerSession.readShort(map, p);
+                mLengths[slot] = ManagerSession.readShort(map, p + 2);
+                entryLength += mLengths[slot];
+            }
+        }
+        mEntryLength = entryLength;
+    }
+
+    public int storeHandle() {
+        return mStoreHandle;
+    }
+
+    public int segment() {
+        return mSegment;
+    }
+
+    /** Bytes of one entry in segment data. */
+    public int entryLength() {
+        return mEntryLength;
+    }
+
+    /**
+     * Decodes <code>count</code> entries at <code>offset</code> into blood pressure readings.
+     * Entries without a pressure or pulse value are skipped; entries without a time stamp get
+     * <code>now</code>.  Returns the number of readings written to <code>out</code>.
+     */
+    public int decode(byte[] data, int offset, int count, String device, int unit,
+            TimeZone zone, long now, Measurement[] out) {
+        double[] pressures = new double[3];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            int p = offset + i * mEntryLength;
+            long time = TimeCodec.INVALID;
+            if ((mHeader & HEADER_ABSOLUTE_TIME) != 0) {
+                time = TimeCodec.absoluteTimeToMillis(data, p, zone);
+            }
+            p += mHeaderLength;
+            pressures[0] = pressures[1] = pressures[2] = Double.NaN;
+            double pulse = Double.NaN;
+            int entryUnit = unit;
+            boolean found = false;
+            for (int s = 0; s < mAttributes.length; p += mLengths[s], s++) {
+                int metric = mMetrics[s];
+                switch (mAttributes[s]) {
+                    case Nomenclature.MDC_ATTR_NU_CMPD_VAL_OBS_BASIC:
+                        if (metric != Nomenclature.MDC_PRESS_BLD_NONINV) break;
+                        NumericCodec.basicNuCmp(data, p, pressures);
+                        found = true;
+                        break;
+                    case Nomenclature.MDC_ATTR_NU_VAL_OBS_BASIC:
+                    case Nomenclature.MDC_ATTR_NU_VAL_OBS_SIMP:
+                        double v = mLengths[s] == 2 ? NumericCodec.sfloat(data, p)
+                                : NumericCodec.float32(data, p);
+                        if (metric == Nomenclature.MDC_PRESS_BLD_NONINV_SYS) {
+                            pressures[0] = v;
+                        } else if (metric == Nomenclature.MDC_PRESS_BLD_NONINV_DIA) {
+                            pressures[1] = v;
+                        } else if (metric == Nomenclature.MDC_PRESS_BLD_NONINV_MEAN) {
+                            pressures[2] = v;
+                        } else if (metric == Nomenclature.MDC_PULS_RATE_NON_INV) {
+                            pulse = v;
+                        } else {
+                            break;
+                        }
+                        found = true;
+                        break;
+                    case Nomenclature.MDC_ATTR_TIME_STAMP_ABS:
+                        if (time == TimeCodec.INVALID) {
+                            time = TimeCodec.absoluteTimeToMillis(data, p, zone);
+                        }
+                        break;
+                    case Nomenclature.MDC_ATTR_UNIT_CODE:
+                        if (metric != Nomenclature.MDC_PULS_RATE_NON_INV) {
+                            entryUnit = ManagerSession.readShort(data, p);
+                        }
+                        break;
+                }
+            }
+            if (!found) continue;
+            out[n++] = new Measurement(device, pressures[0], pressures[1], pressures[2], pulse,
+                    entryUnit, time == TimeCodec.INVALID ? now : time);
+        }
+        return n;
+    }
+
+    private static void check(boolean ok) {
+        if (!ok) throw new IllegalArgumentException("Truncated PM-segment entry map");
+    }
+}
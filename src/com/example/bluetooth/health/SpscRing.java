@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free ring for exactly one producer thread and one consumer thread.
+ *
+ * The producer publishes a slot with an ordered store of the tail and the consumer frees it
+ * with an ordered store of the head, so neither side takes a lock or allocates.  Each side
+ * caches the other side's index and only re-reads it when the ring looks full or empty.
+ */
+public final class SpscRing<E> {
+    private final Object[] mBuffer;
+    private final int mMask;
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+    // Producer's view of the head, consumer's view of the tail.
+    private long mCachedHead;
+    private long mCachedTail;
+
+    /** @param capacity rounded up to a power of two. */
+    public SpscRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mBuffer = new Object[size];
+        mMask = size - 1;
+    }
+
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    /** Producer: adds an element, or returns false if the ring is full. */
+    public boolean offer(E e) {
+        long tail = mTail.get();
+        if (tail - mCachedHead >= mBuffer.length) {
+            mCachedHead = mHead.get();
+            if (tail - mCachedHead >= mBuffer.length) return false;
+        }
+        mBuffer[(int) tail & mMask] = e;
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /** Consumer: moves up to <code>max</code> elements into <code>out</code>. */
+    @SuppressWarnings("unchecked")
+    public int drain(E[] out, int offset, int max) {
+        long head = mHead.get();
+        if (mCachedTail - head < max) mCachedTail = mTail.get();
+        int n = (int) Math.min(max, mCachedTail - head);
+        for (int i = 0; i < n; i++) {
+            int index = (int) (head + i) & mMask;
+            out[offset + i] = (E) mBuffer[index];
+            mBuffer[index] = null;
+        }
+        if (n > 0) mHead.lazySet(head + n);
+        return n;
+    }
+
+    /** Either thread: true if nothing is waiting, as of some recent moment. */
+    public boolean isEmpty() {
+        return mTail.get() == mHead.get();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Observation layout of a streaming device configuration: which object handles in its fixed
+ * scan reports carry which metric, and how their values are encoded.
+ *
+ * <ul>
+ * <li>{@link #KIND_NUMERIC} - BasicNuObsValue, optionally followed by an AbsoluteTime.</li>
+ * <li>{@link #KIND_SAMPLE_ARRAY} - octet string of unsigned 16 bit samples taken every
+ * <code>periodMicros</code>, value = sample * scale + offset.</li>
+ * </ul>
+ *
+ * The standard pulse oximeter configurations are built in.  Agents with extended
+ * configurations, e.g. ECG monitors, need their layout registered with
+ * {@link #register(int, StreamLayout)} before they associate.
+ */
+public final class StreamLayout {
+    public static final int KIND_NUMERIC = 0;
+    public static final int KIND_SAMPLE_ARRAY = 1;
+
+    // IEEE 11073-10404 standard configurations.
+    static final int DEV_CONFIG_PULSE_OXIMETER = 0x0190;
+    static final int DEV_CONFIG_PULSE_OXIMETER_CONTINUOUS = 0x0191;
+
+    private static final ConcurrentHashMap<Integer, StreamLayout> sLayouts =
+            new ConcurrentHashMap<Integer, StreamLayout>();
+    static {
+        StreamLayout oximeter = new StreamLayout()
+                .addNumeric(1, Nomenclature.MDC_PULS_OXIM_SAT_O2)
+                .addNumeric(10, Nomenclature.MDC_PULS_OXIM_PULS_RATE);
+        register(DEV_CONFIG_PULSE_OXIMETER, oximeter);
+        register(DEV_CONFIG_PULSE_OXIMETER_CONTINUOUS, oximeter);
+    }
+
+    // Parallel arrays, one entry per channel; a layout only has a handful of them.
+    private int[] mHandles = new int[4];
+    private int[] mMetrics = new int[4];
+    private int[] mKinds = new int[4];
+    private int[] mPeriodMicros = new int[4];
+    private double[] mScales = new double[4];
+    private double[] mOffsets = new double[4];
+    private int mCount;
+
+    /** Registers the layout of a device configuration, replacing any previous one. */
+    public static void register(int devConfigId, StreamLayout layout) {
+        sLayouts.put(devConfigId, layout);
+    }
+
+    /** Layout of a device configuration, or null if it does not stream. */
+    public static StreamLayout forConfig(int devConfigId) {
+        return sLayouts.get(devConfigId);
+    }
+
+    public StreamLayout addNumeric(int handle, int metric) {
+        return add(handle, metric, KIND_NUMERIC, 0, 1, 0);
+    }
+
+    public StreamLayout addSampleArray(int handle, int metric, int periodMicros, double scale,
+            double offset) {
+        if (periodMicros <= 0) throw new IllegalArgumentException("periodMicros");
+        return add(handle, metric, KIND_SAMPLE_ARRAY, periodMicros, scale, offset);
+    }
+
+    private StreamLayout add(int handle, int metric, int kind, int periodMicros, double scale,
+            double offset) {
+        if (mCount == mHandles.length) {
+            int n = mCount * 2;
+            mHandles = Arrays.copyOf(mHandles, n);
+            mMetrics = Arrays.copyOf(mMetrics, n);
+            mKinds = Arrays.copyOf(mKinds, n);
+            mPeriodMicros = Arrays.copyOf(mPeriodMicros, n);
+            mScales = Arrays.copyOf(mScales, n);
+            mOffsets = Arrays.copyOf(mOffsets, n);
+        }
+        mHandles[mCount] = handle;
+        mMetrics[mCount] = metric;
+        mKinds[mCount] = kind;
+        mPeriodMicros[mCount] = periodMicros;
+        mScales[mCount] = scale;
+        mOffsets[mCount] = offset;
+        mCount++;
+        return this;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /** Channel index of an object handle, or -1. */
+    public int indexOf(int handle) {
+        for (int i = 0; i < mCount; i++) {
+            if (mHandles[i] == handle) return i;
+        }
+        return -1;
+    }
+
+    public int metric(int channel) {
+        return mMetrics[channel];
+    }
+
+    public int kind(int channel) {
+        return mKinds[channel];
+    }
+
+    public int periodMicros(int channel) {
+        return mPeriodMicros[channel];
+    }
+
+    public double scale(int channel) {
+        return mScales[channel];
+    }
+
+    public double offset(int channel) {
+        return mOffsets[channel];
+    }
+}
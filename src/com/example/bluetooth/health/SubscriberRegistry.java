@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Fans out {@link HdpEvent}s to any number of subscribers without letting a slow one hold up
+ * the publisher.
+ *
+ * Publishing only appends the shared event to each subscriber's bounded queue and returns.
+ * Queues are drained on an executor, one drain at a time per subscriber.  When a queue is
+ * full:
+ * <ul>
+ * <li>a status event replaces a pending status event with the same code (coalesce), and</li>
+ * <li>otherwise the oldest pending event is dropped and counted.</li>
+ * </ul>
+ */
+public final class SubscriberRegistry {
+    public static final int DEFAULT_QUEUE_CAPACITY = 32;
+
+    /** Receives events on an executor thread, in publication order. */
+    public interface Subscriber {
+        /**
+         * @return false to be unregistered, e.g. because the remote end died.
+         */
+        boolean onEvent(HdpEvent event);
+    }
+
+    private final Executor mExecutor;
+    private final CopyOnWriteArrayList<Entry> mEntries = new CopyOnWriteArrayList<Entry>();
+
+    public SubscriberRegistry(Executor executor) {
+        mExecutor = executor;
+    }
+
+    public void register(Subscriber subscriber) {
+        register(subscriber, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public void register(Subscriber subscriber, int queueCapacity) {
+        if (find(subscriber) == null) {
+            mEntries.add(new Entry(subscriber, queueCapacity));
+        }
+    }
+
+    public void unregister(Subscriber subscriber) {
+        Entry entry = find(subscriber);
+        if (entry != null) mEntries.remove(entry);
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /** Number of events dropped for the subscriber because its queue was full. */
+    public long getDropped(Subscriber subscriber) {
+        Entry entry = find(subscriber);
+        return entry == null ? 0 : entry.mDropped;
+    }
+
+    public void publish(HdpEvent event) {
+        for (Entry entry : mEntries) {
+            entry.offer(event);
+        }
+    }
+
+    // Subscribers are matched with equals(), so wrappers around the same Messenger or
+    // listener are treated as one subscriber.
+    private Entry find(Subscriber subscriber) {
+        for (Entry entry : mEntries) {
+            if (entry.mSubscriber.equals(subscriber)) return entry;
+        }
+        return null;
+    }
+
+    private final class Entry implements Runnable {
+        private final Subscriber mSubscriber;
+        private final int mCapacity;
+        private final ArrayDeque<HdpEvent> mQueue;
+        private boolean mDraining;
+        private volatile long mDropped;
+
+        Entry(Subscriber subscriber, int capacity) {
+            mSubscriber = subscriber;
+            mCapacity = capacity;
+            mQueue = new ArrayDeque<HdpEvent>(capacity);
+        }
+
+        void offer(HdpEvent event) {
+            synchronized (mQueue) {
+                if (mQueue.size() >= mCapacity && !coalesce(event)) {
+                    mQueue.poll();
+                    mDropped++;
+                }
+                if (mQueue.size() < mCapacity) mQueue.add(event);
+                if (mDraining) return;
+                mDraining = true;
+            }
+            mExecutor.execute(this);
+        }
+
+        // Replaces the most recent pending status event with the same code.
+        private boolean coalesce(HdpEvent event) {
+            if (event.type != HdpEvent.TYPE_STATUS) return false;
+            Iterator<HdpEvent> it = mQueue.descendingIterator();
+            while (it.hasNext()) {
+                HdpEvent pending = it.next();
+                if (pending.type == HdpEvent.TYPE_STATUS && pending.what == event.what) {
+                    it.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void run() {
+            while (true) {
+                HdpEvent event;
+                synchronized (mQueue) {
+                    event = mQueue.poll();
+                    if (event == null) {
+                        mDraining = false;
+                        return;
+                    }
+                }
+                if (!mSubscriber.onEvent(event)) {
+                    mEntries.remove(this);
+                    synchronized (mQueue) {
+                        mQueue.clear();
+                        mDraining = false;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
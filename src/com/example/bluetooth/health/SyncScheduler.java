@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.bluetooth.health.MeasurementContract.Columns;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Coalesces uploads to a {@link MeasurementSink}.  Readings wait until <code>batchSize</code>
+ * of them are pending, the oldest has waited <code>maxDelayMs</code>, or the network comes
+ * back, and then go out in one run of at most <code>batchSize</code> readings per request.
+ * Only one run is in flight at a time; requests made meanwhile are folded into it.  A failed
+ * run is retried with exponential backoff, and not at all while offline.
+ *
+ * Pending readings are the rows of {@link MeasurementDatabase} after a persisted watermark,
+ * the row id of the last reading uploaded, so nothing is lost when the process dies before a
+ * run.  The watermark moves after each accepted request; a request accepted just before the
+ * process dies may be sent again.
+ */
+public class SyncScheduler implements Handler.Callback {
+    private static final String TAG = "bp";
+
+    /** Nothing pending. */
+    public static final int STATE_IDLE = 0;
+    /** Readings pending, waiting for more or for the max delay. */
+    public static final int STATE_PENDING = 1;
+    /** Readings pending, waiting for connectivity. */
+    public static final int STATE_OFFLINE = 2;
+    /** A run is in flight. */
+    public static final int STATE_SYNCING = 3;
+    /** The last run failed; waiting to retry. */
+    public static final int STATE_RETRY = 4;
+
+    /** Told about state changes, on the sync thread. */
+    public interface Listener {
+        void onSyncState(SyncScheduler scheduler, int state);
+    }
+
+    private static final long MAX_BACKOFF_MS = 30 * 60 * 1000L;
+
+    private static final String PREFS = "sync";
+    private static final String KEY_UPLOADED_ID = "uploaded_id";
+
+    private static final String[] COLUMNS = { Columns._ID, Columns.DEVICE, Columns.SYSTOLIC,
+            Columns.DIASTOLIC, Columns.MEAN_ARTERIAL, Columns.PULSE, Columns.UNIT, Columns.TIME };
+
+    // Run now, and run at the deadline; both are coalesced into one run.
+    private static final int MSG_SYNC = 1;
+    private static final int MSG_DEADLINE = 2;
+    // Readings were stored.
+    private static final int MSG_QUEUED = 3;
+
+    private final Context mContext;
+    private final MeasurementDatabase mDatabase;
+    private final SharedPreferences mPrefs;
+    private final MeasurementSink mSink;
+    private final boolean mNeedsNetwork;
+    private final int mBatchSize;
+    private final long mMaxDelayMs;
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    private volatile int mState = STATE_IDLE;
+    private volatile int mPending;
+    private volatile long mLastSyncTime;
+    // Sync thread only.
+    private long mBackoffMs;
+    private long mUploadedId;
+    // Row id of the last pending reading as of the last count.
+    private long mPendingEnd;
+
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Delivered on the sync thread.
+            if (isOnline() && mPending > 0
+                    && (mState == STATE_OFFLINE || mState == STATE_RETRY)) {
+                Log.d(TAG, "Network back, syncing");
+                mBackoffMs = mMaxDelayMs;
+                mHandler.sendEmptyMessage(MSG_SYNC);
+            }
+        }
+    };
+
+    /**
+     * @param needsNetwork false for sinks that do not touch the network, e.g. a local file.
+     * @param batchSize pending readings that trigger a run, and readings per request.
+     * @param maxDelayMs longest a reading waits for others before a run starts.
+     */
+    public SyncScheduler(Context context, MeasurementSink sink, boolean needsNetwork,
+            int batchSize, long maxDelayMs, Listener listener) {
+        mContext = context.getApplicationContext();
+        mDatabase = MeasurementDatabase.getInstance(mContext);
+        mPrefs = mContext.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        mUploadedId = mPrefs.getLong(KEY_UPLOADED_ID, 0);
+        mSink = sink;
+        mNeedsNetwork = needsNetwork;
+        mBatchSize = Math.max(1, batchSize);
+        mMaxDelayMs = maxDelayMs;
+        mBackoffMs = maxDelayMs;
+        mListener = listener;
+        mThread = new HandlerThread("hdp-sync", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper(), this);
+        if (mNeedsNetwork) {
+            mContext.registerReceiver(mConnectivityReceiver,
+                    new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION), null, mHandler);
+        }
+        // Picks up what a previous process stored but did not upload.
+        mHandler.sendEmptyMessage(MSG_QUEUED);
+    }
+
+    /** Row id of the last reading uploaded; later rows are pending. */
+    static long getUploadedId(Context context) {
+        return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE)
+                .getLong(KEY_UPLOADED_ID, 0);
+    }
+
+    /** Tells the scheduler that new readings were stored in the {@link MeasurementProvider}. */
+    public void onStored() {
+        if (!mHandler.hasMessages(MSG_QUEUED)) mHandler.sendEmptyMessage(MSG_QUEUED);
+    }
+
+    /** Uploads whatever is pending now, e.g. on request of the user. */
+    public void sync() {
+        if (!mHandler.hasMessages(MSG_SYNC)) mHandler.sendEmptyMessage(MSG_SYNC);
+    }
+
+    /** One of the STATE_ constants. */
+    public int getState() {
+        return mState;
+    }
+
+    /** Readings waiting for upload, as of the last count. */
+    public int getPending() {
+        return mPending;
+    }
+
+    /** Wall clock time of the last successful run, 0 if none. */
+    public long getLastSyncTime() {
+        return mLastSyncTime;
+    }
+
+    /**
+     * Makes a last attempt to upload what is pending and stops the sync thread.
+     *
+     * @param onStopped run on the sync thread after the last attempt, or null.
+     */
+    public void stop(final Runnable onStopped) {
+        if (mNeedsNetwork) mContext.unregisterReceiver(mConnectivityReceiver);
+        mHandler.sendEmptyMessage(MSG_SYNC);
+        mHandler.post(new Runnable() {
+            public void run() {
+                if (onStopped != null) onStopped.run();
+                mThread.getLooper().quit();
+            }
+        });
+    }
+
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_SYNC:
+            case MSG_DEADLINE:
+                mHandler.removeMessages(MSG_SYNC);
+                mHandler.removeMessages(MSG_DEADLINE);
+                run();
+                return true;
+            case MSG_QUEUED:
+                onQueued();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void onQueued() {
+        int pending = countPending();
+        if (pending >= mBatchSize) {
+            // A full batch, unless backing off or offline where the next run is already due.
+            if (mState == STATE_IDLE || mState == STATE_PENDING) run();
+        } else if (pending > 0 && mState == STATE_IDLE) {
+            // The first pending readings start the clock.
+            setState(STATE_PENDING);
+            mHandler.sendEmptyMessageDelayed(MSG_DEADLINE, mMaxDelayMs);
+        }
+    }
+
+    // Sends what is pending when the run starts; later readings wait for the next trigger.
+    private void run() {
+        if (countPending() == 0) {
+            setState(STATE_IDLE);
+            return;
+        }
+        if (!isOnline()) {
+            // The connectivity receiver starts the next run.
+            setState(STATE_OFFLINE);
+            return;
+        }
+        setState(STATE_SYNCING);
+        long start = SystemClock.elapsedRealtime();
+        long end = mPendingEnd;
+        int sent = 0;
+        while (mUploadedId < end) {
+            List<Measurement> batch = new ArrayList<Measurement>(mBatchSize);
+            long last = readBatch(end, batch);
+            if (batch.isEmpty()) break;
+            try {
+                mSink.send(batch);
+            } catch (IOException e) {
+                Log.w(TAG, "Upload failed, retrying in " + mBackoffMs + " ms: "
+                        + e.getMessage());
+                retryLater();
+                return;
+            } catch (RuntimeException e) {
+                // A sink bug must not take the sync thread down with it.
+                Log.e(TAG, "Upload failed, retrying in " + mBackoffMs + " ms", e);
+                retryLater();
+                return;
+            }
+            setUploadedId(last, batch.size());
+            sent += batch.size();
+        }
+        mBackoffMs = mMaxDelayMs;
+        mLastSyncTime = System.currentTimeMillis();
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Synced " + sent + " readings in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+        int pending = countPending();
+        if (pending >= mBatchSize) {
+            // A full batch arrived during the run.
+            sync();
+        } else if (pending > 0) {
+            setState(STATE_PENDING);
+            mHandler.sendEmptyMessageDelayed(MSG_DEADLINE, mMaxDelayMs);
+        } else {
+            setState(STATE_IDLE);
+        }
+    }
+
+    private void retryLater() {
+        setState(STATE_RETRY);
+        mHandler.sendEmptyMessageDelayed(MSG_DEADLINE, mBackoffMs);
+        mBackoffMs = Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+    }
+
+    // Counts the stored readings after the watermark.
+    private int countPending() {
+        Cursor c = mDatabase.getReadableDatabase().rawQuery("SELECT COUNT(*), MAX("
+                + Columns._ID + ") FROM " + MeasurementDatabase.TABLE + " WHERE " + Columns._ID
+                + " > ?", new String[] { Long.toString(mUploadedId) });
+        try {
+            c.moveToFirst();
+            mPending = c.getInt(0);
+            mPendingEnd = c.isNull(1) ? mUploadedId : c.getLong(1);
+        } finally {
+            c.close();
+        }
+        return mPending;
+    }
+
+    // Reads the next readings after the watermark up to row end; returns the last row id.
+    private long readBatch(long end, List<Measurement> batch) {
+        long last = mUploadedId;
+        Cursor c = mDatabase.getReadableDatabase().query(MeasurementDatabase.TABLE, COLUMNS,
+                Columns._ID + " > ? AND " + Columns._ID + " <= ?",
+                new String[] { Long.toString(mUploadedId), Long.toString(end) }, null, null,
+                Columns._ID, Integer.toString(mBatchSize));
+        try {
+            while (c.moveToNext()) {
+                last = c.getLong(0);
+                batch.add(new Measurement(c.getString(1), getValue(c, 2), getValue(c, 3),
+                        getValue(c, 4), getValue(c, 5), c.getInt(6), c.getLong(7)));
+            }
+        } finally {
+            c.close();
+        }
+        return last;
+    }
+
+    private void setUploadedId(long id, int count) {
+        mUploadedId = id;
+        mPending = Math.max(0, mPending - count);
+        mPrefs.edit().putLong(KEY_UPLOADED_ID, id).commit();
+    }
+
+    private static double getValue(Cursor c, int column) {
+        return c.isNull(column) ? Double.NaN : c.getDouble(column);
+    }
+
+    private boolean isOnline() {
+        if (!mNeedsNetwork) return true;
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
+    private void setState(int state) {
+        if (mState == state) return;
+        mState = state;
+        if (mListener != null) mListener.onSyncState(this, state);
+    }
+}
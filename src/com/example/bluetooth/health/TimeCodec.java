@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.util.TimeZone;
+
+/**
+ * Allocation-free codec for the IEEE 11073-20601 time types.
+ *
+ * <pre>
+ * AbsoluteTime         := century year month day hour minute second sec-fractions
+ *                         (8 packed BCD bytes, local time of the agent, 1/100 s fractions)
+ * RelativeTime         := u32, 1/8 ms ticks
+ * HighResRelativeTime  := u64, microseconds
+ * </pre>
+ *
+ * AbsoluteTime is converted to epoch milliseconds with a civil-date calculation instead of
+ * {@link java.util.Calendar}, so decoding a report allocates nothing.
+ */
+public final class TimeCodec {
+    /** Returned for unspecified (0xFF filled) or malformed times. */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    public static final int ABSOLUTE_TIME_LENGTH = 8;
+
+    private static final long MILLIS_PER_DAY = 86400000L;
+
+    // Packed BCD byte -> 0..99, or -1 if either nibble is not a decimal digit.
+    private static final byte[] BCD = new byte[256];
+    // 0..99 -> packed BCD byte.
+    private static final byte[] TO_BCD = new byte[100];
+    static {
+        for (int i = 0; i < 256; i++) {
+            int hi = i >> 4, lo = i & 0x0F;
+            BCD[i] = (byte) (hi > 9 || lo > 9 ? -1 : hi * 10 + lo);
+        }
+        for (int i = 0; i < 100; i++) {
+            TO_BCD[i] = (byte) ((i / 10) << 4 | (i % 10));
+        }
+    }
+
+    private TimeCodec() {}
+
+    /** Decodes a packed BCD byte, e.g. 0x59 -> 59, or -1 if it is not valid BCD. */
+    public static int bcd(byte b) {
+        return BCD[b & 0xFF];
+    }
+
+    /**
+     * Decodes an AbsoluteTime at <code>offset</code> into epoch milliseconds.  The agent clock
+     * is interpreted in <code>zone</code>.
+     *
+     * @return epoch millis, or {@link #INVALID}.
+     */
+    public static long absoluteTimeToMillis(byte[] b, int offset, TimeZone zone) {
+        int century = BCD[b[offset] & 0xFF];
+        int year = BCD[b[offset + 1] & 0xFF];
+        int month = BCD[b[offset + 2] & 0xFF];
+        int day = BCD[b[offset + 3] & 0xFF];
+        int hour = BCD[b[offset + 4] & 0xFF];
+        int minute = BCD[b[offset + 5] & 0xFF];
+        int second = BCD[b[offset + 6] & 0xFF];
+        int fraction = BCD[b[offset + 7] & 0xFF];
+        if ((century | year | fraction) < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 60) {
+            return INVALID;
+        }
+        long local = daysFromCivil(century * 100 + year, month, day) * MILLIS_PER_DAY
+                + ((hour * 60L + minute) * 60 + second) * 1000 + fraction * 10;
+        // First guess with the raw offset, then correct for daylight saving at that instant.
+        long utc = local - zone.getRawOffset();
+        return local - zone.getOffset(utc);
+    }
+
+    /** Encodes epoch milliseconds as an AbsoluteTime in <code>zone</code>. */
+    public static void writeAbsoluteTime(long millis, TimeZone zone, byte[] out, int offset) {
+        long local = millis + zone.getOffset(millis);
+        long days = floorDiv(local, MILLIS_PER_DAY);
+        int ms = (int) (local - days * MILLIS_PER_DAY);
+        // Civil date from day count; inverse of daysFromCivil.
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yoe + era * 400) + (month <= 2 ? 1 : 0);
+
+        out[offset] = TO_BCD[year / 100];
+        out[offset + 1] = TO_BCD[year % 100];
+        out[offset + 2] = TO_BCD[month];
+        out[offset + 3] = TO_BCD[day];
+        out[offset + 4] = TO_BCD[ms / 3600000];
+        out[offset + 5] = TO_BCD[ms / 60000 % 60];
+        out[offset + 6] = TO_BCD[ms / 1000 % 60];
+        out[offset + 7] = TO_BCD[ms % 1000 / 10];
+    }
+
+    /** Decodes a RelativeTime (1/8 ms ticks) into milliseconds. */
+    public static long relativeTimeToMillis(byte[] b, int offset) {
+        long ticks = (b[offset] & 0xFFL) << 24 | (b[offset + 1] & 0xFF) << 16
+                | (b[offset + 2] & 0xFF) << 8 | (b[offset + 3] & 0xFF);
+        return ticks >>> 3;
+    }
+
+    /** Decodes a HighResRelativeTime (microseconds). */
+    public static long highResRelativeTimeToMicros(byte[] b, int offset) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[offset + i] & 0xFF);
+        }
+        return v;
+    }
+
+    /** Local hour of day (0-23) of an epoch millisecond instant. */
+    public static int hourOfDay(long millis, TimeZone zone) {
+        long local = millis + zone.getOffset(millis);
+        return (int) ((local - floorDiv(local, MILLIS_PER_DAY) * MILLIS_PER_DAY) / 3600000);
+    }
+
+    // Days since 1970-01-01 of a proleptic Gregorian date (H. Hinnant's algorithm).
+    static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.bluetooth.health;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How the consumer of a {@link MeasurementPipeline} waits for work, trading latency against
+ * CPU.  Producers call {@link #signal()} after every publish; only the blocking strategy does
+ * anything there, and only while the consumer is actually waiting.
+ */
+public abstract class WaitStrategy {
+    /** Checked by a waiting consumer right before it parks. */
+    public interface Condition {
+        boolean hasWork();
+    }
+
+    /**
+     * Returns the strategy named <code>blocking</code>, <code>sleeping</code>,
+     * <code>yielding</code> or <code>busy_spin</code>.
+     */
+    public static WaitStrategy forName(String name) {
+        if ("blocking".equals(name)) return new Blocking();
+        if ("sleeping".equals(name)) return new Sleeping();
+        if ("yielding".equals(name)) return new Yielding();
+        if ("busy_spin".equals(name)) return new BusySpin();
+        throw new IllegalArgumentException("Unknown wait strategy: " + name);
+    }
+
+    /**
+     * Consumer: called after finding no work for the <code>idle</code>th time in a row
+     * (starting at 1).
+     */
+    public abstract void await(int idle, Condition condition) throws InterruptedException;
+
+    /** Producer: work was published. */
+    public void signal() {}
+
+    /** Parks the consumer on a monitor until signalled; lowest CPU, a context switch of latency. */
+    static final class Blocking extends WaitStrategy {
+        // Upper bound of a wait, so close() never depends on a signal.
+        private static final long MAX_WAIT_MS = 1000;
+        private final Object mLock = new Object();
+        private volatile boolean mWaiting;
+        // Written by producers after publishing, before they read mWaiting; read by the
+        // consumer after setting mWaiting, before it checks for work.  Either the producer
+        // sees mWaiting or the consumer sees the publish, even one made with lazySet().
+        private volatile boolean mFence;
+
+        @Override
+        public void await(int idle, Condition condition) throws InterruptedException {
+            synchronized (mLock) {
+                mWaiting = true;
+                try {
+                    // Until the first signal nothing was published.
+                    if (!mFence || !condition.hasWork()) mLock.wait(MAX_WAIT_MS);
+                } finally {
+                    mWaiting = false;
+                }
+            }
+        }
+
+        @Override
+        public void signal() {
+            mFence = true;
+            if (mWaiting) {
+                synchronized (mLock) {
+                    mLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /** Spins briefly, then sleeps in growing steps up to a millisecond. */
+    static final class Sleeping extends WaitStrategy {
+        @Override
+        public void await(int idle, Condition condition) {
+            if (idle <= 100) return;
+            if (idle <= 200) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(Math.min(idle - 200, 1000) * 1000L);
+            }
+        }
+    }
+
+    /** Spins, then yields the CPU between checks; low latency on an otherwise idle core. */
+    static final class Yielding extends WaitStrategy {
+        @Override
+        public void await(int idle, Condition condition) {
+            if (idle > 100) Thread.yield();
+        }
+    }
+
+    /** Never gives up the CPU; lowest latency, a full core while idle. */
+    static final class BusySpin extends WaitStrategy {
+        @Override
+        public void await(int idle, Condition condition) {}
+    }
+}